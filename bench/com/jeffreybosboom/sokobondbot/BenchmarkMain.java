@@ -0,0 +1,76 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the benchmarks once per thread count, doubling from 1 up to the
+ * number of processors, with the GC profiler attached to report allocation
+ * rates.  The solver benchmarks run single-threaded in JMH and scale through
+ * the common fork/join pool's parallelism instead.
+ * <p>
+ * Arguments are regexes selecting benchmarks (default: all).  System
+ * properties bench.threads (comma-separated thread counts) and
+ * bench.quick (fewer, shorter iterations) adjust the run.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/14/2015
+ */
+public final class BenchmarkMain {
+	private BenchmarkMain() {}
+
+	public static void main(String[] args) throws RunnerException {
+		List<Integer> threadCounts = new ArrayList<>();
+		String threadsProperty = System.getProperty("bench.threads", "");
+		if (!threadsProperty.isEmpty())
+			for (String t : threadsProperty.split(","))
+				threadCounts.add(Integer.parseInt(t.trim()));
+		else {
+			int processors = Runtime.getRuntime().availableProcessors();
+			for (int t = 1; t < processors; t *= 2)
+				threadCounts.add(t);
+			threadCounts.add(processors);
+		}
+		boolean quick = Boolean.getBoolean("bench.quick");
+
+		for (int threads : threadCounts) {
+			System.out.println("==== "+threads+" thread(s) ====");
+			//microbenchmarks scale by JMH threads, full solves by pool size
+			run(options(args, threads, quick)
+					.threads(threads)
+					.exclude(SolverBenchmark.class.getSimpleName()));
+			run(options(args, threads, quick)
+					.threads(1)
+					.exclude(StateUnboxedBenchmark.class.getSimpleName()));
+		}
+	}
+
+	private static ChainedOptionsBuilder options(String[] args, int threads, boolean quick) {
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.addProfiler(GCProfiler.class)
+				.jvmArgsAppend("-Djava.util.concurrent.ForkJoinPool.common.parallelism="+threads);
+		if (args.length == 0)
+			options.include(StateUnboxedBenchmark.class.getSimpleName())
+					.include(SolverBenchmark.class.getSimpleName());
+		for (String regex : args)
+			options.include(regex);
+		if (quick)
+			options.warmupIterations(2).warmupTime(TimeValue.milliseconds(500))
+					.measurementIterations(3).measurementTime(TimeValue.milliseconds(500));
+		return options;
+	}
+
+	private static void run(ChainedOptionsBuilder options) throws RunnerException {
+		try {
+			new Runner(options.build()).run();
+		} catch (NoBenchmarksException ex) {
+			//the regexes only selected the other kind of benchmark
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.jeffreybosboom.sokobondbot;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Set;
+
+/**
+ * The fixed corpus of puzzles the benchmarks run over, in PuzzleFormat.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/14/2015
+ */
+final class BenchmarkPuzzles {
+	private BenchmarkPuzzles() {}
+
+	private static final ImmutableMap<String, String[]> GRIDS = ImmutableMap.of(
+			//short solution, a few hundred states
+			"small", new String[]{
+				"##########",
+				"#c.......#",
+				"#..H..H..#",
+				"#........#",
+				"#..H..H..#",
+				"#........#",
+				"##########",
+			},
+			//interior walls and a two-electron atom
+			"medium", new String[]{
+				"#########",
+				"#e......#",
+				"#..H..#.#",
+				"#.....H.#",
+				"#.#.....#",
+				"#...O...#",
+				"#########",
+			},
+			//tightly-packed atoms, so most moves push or bond
+			"crowded", new String[]{
+				"##########",
+				"#........#",
+				"#..H.H...#",
+				"#.o.HC...#",
+				"#..H..#..#",
+				"#........#",
+				"##########",
+			});
+
+	/**
+	 * Returns the names of the puzzles in the corpus.
+	 * @return the puzzle names
+	 */
+	static Set<String> names() {
+		return GRIDS.keySet();
+	}
+
+	/**
+	 * Returns the puzzle with the given name.
+	 * @param name a puzzle name
+	 * @return the puzzle
+	 */
+	static Puzzle get(String name) {
+		String[] rows = GRIDS.get(name);
+		if (rows == null)
+			throw new IllegalArgumentException("no benchmark puzzle named "+name);
+		return PuzzleFormat.parse(String.join("\n", rows));
+	}
+}
@@ -0,0 +1,52 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end solve times, including preprocessing.  The searches are run
+ * directly rather than through Solver, whose solve methods print timings or
+ * register the search's metrics over JMX on every call.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/14/2015
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SolverBenchmark {
+	@Param({"small", "medium", "crowded"})
+	public String puzzle;
+	private Puzzle p;
+
+	@Setup
+	public void setUp() {
+		p = BenchmarkPuzzles.get(puzzle);
+	}
+
+	@Benchmark
+	public Optional<Path> solve() {
+		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(p);
+		return SearchEngine.breadthFirst(true).find(prepro, new StateUnboxed(p, prepro),
+				new SearchMetrics(), SearchLimits.none());
+	}
+
+	@Benchmark
+	public Optional<StateUnboxed> solveAStar() {
+		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(p);
+		return new AStar(prepro, Heuristic.electronDistance(), 1).find(new StateUnboxed(p, prepro));
+	}
+}
@@ -0,0 +1,106 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Microbenchmarks for the StateUnboxed operations on the search's hot path.
+ * Each invocation cycles through a sample of reachable states of the puzzle,
+ * collected by a short breadth-first walk during setup, so branch behavior
+ * resembles a real search rather than repeatedly expanding the initial state.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/14/2015
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StateUnboxedBenchmark {
+	private static final int SAMPLE_SIZE = 1024;
+	@Param({"small", "medium", "crowded"})
+	public String puzzle;
+	private StateUnboxed.PreprocessedPuzzle prepro;
+	private StateUnboxed.Successor scratch;
+	private StateUnboxed[] sample;
+	private long[] packBuffer;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Puzzle p = BenchmarkPuzzles.get(puzzle);
+		prepro = StateUnboxed.preprocess(p);
+		scratch = new StateUnboxed.Successor(prepro);
+		packBuffer = new long[prepro.packedLongs()];
+		PackedStateSet seen = new PackedStateSet(prepro.packedLongs(), SAMPLE_SIZE);
+		List<StateUnboxed> states = new ArrayList<>(SAMPLE_SIZE);
+		states.add(new StateUnboxed(p, prepro));
+		for (int i = 0; i < states.size() && states.size() < SAMPLE_SIZE; ++i)
+			states.get(i).forEachSuccessor(scratch, s -> {
+				if (states.size() < SAMPLE_SIZE && s.isViable() && seen.add(s.hash(), s))
+					states.add(s.toState());
+			});
+		sample = states.toArray(new StateUnboxed[0]);
+	}
+
+	private StateUnboxed nextState() {
+		StateUnboxed s = sample[next];
+		next = next + 1 == sample.length ? 0 : next + 1;
+		return s;
+	}
+
+	@Benchmark
+	public void nextStates(Blackhole bh) {
+		nextState().nextStates(prepro).forEach(bh::consume);
+	}
+
+	/**
+	 * Successor generation without allocation; dominated by tryMove() and
+	 * bond formation.
+	 */
+	@Benchmark
+	public void forEachSuccessor(Blackhole bh) {
+		nextState().forEachSuccessor(scratch, s -> bh.consume(s.hash()));
+	}
+
+	@Benchmark
+	public void forEachViableSuccessor(Blackhole bh) {
+		nextState().forEachSuccessor(scratch, s -> bh.consume(s.isViable()));
+	}
+
+	@Benchmark
+	public boolean isViable() {
+		return nextState().isViable(prepro);
+	}
+
+	@Benchmark
+	public long[] pack() {
+		nextState().pack(prepro, packBuffer, 0);
+		return packBuffer;
+	}
+
+	@Benchmark
+	public long fingerprint() {
+		return nextState().fingerprint(prepro);
+	}
+
+	@Benchmark
+	public char molecule() {
+		return nextState().molecule(0);
+	}
+}
@@ -0,0 +1,105 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * Best-first search over StateUnboxed ordered by g + weight * h.  With an
+ * admissible heuristic and weight 1 the returned solution is optimal; with
+ * weight w > 1 it is at most w times longer than optimal.
+ * <p/>
+ * Our heuristics aren't consistent (forming a bond can remove an atom's only
+ * nearby partner), so states are reopened when reached by a shorter path.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/2/2015
+ */
+public final class AStar {
+	private final StateUnboxed.PreprocessedPuzzle prepro;
+	private final Heuristic heuristic;
+	private final double weight;
+	private int expanded;
+	public AStar(StateUnboxed.PreprocessedPuzzle prepro, Heuristic heuristic, double weight) {
+		if (!(weight >= 1))
+			throw new IllegalArgumentException("weight must be at least 1: "+weight);
+		this.prepro = prepro;
+		this.heuristic = heuristic;
+		this.weight = weight;
+	}
+
+	private static final class Node {
+		private final StateUnboxed state;
+		private final int g;
+		private final double f;
+		private Node(StateUnboxed state, int g, double f) {
+			this.state = state;
+			this.g = g;
+			this.f = f;
+		}
+	}
+
+	//packed states as hash map keys
+	private static final class Key {
+		private final long[] packed;
+		private final long hash;
+		private Key(StateUnboxed state, StateUnboxed.PreprocessedPuzzle prepro) {
+			this.packed = new long[prepro.packedLongs()];
+			state.pack(prepro, packed, 0);
+			this.hash = state.hash();
+		}
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && Arrays.equals(packed, ((Key)obj).packed);
+		}
+		@Override
+		public int hashCode() {
+			return (int)(hash ^ (hash >>> 32));
+		}
+	}
+
+	//break f ties in favor of deeper nodes, which are closer to a solution
+	private static final Comparator<Node> ORDER = Comparator.comparingDouble((Node n) -> n.f)
+			.thenComparing(Comparator.comparingInt((Node n) -> n.g).reversed());
+
+	public Optional<StateUnboxed> find(StateUnboxed initial) {
+		expanded = 0;
+		PriorityQueue<Node> open = new PriorityQueue<>(ORDER);
+		//best known g for each packed state; serves as both open and closed set
+		Map<Key, Integer> bestG = new HashMap<>();
+		int h0 = heuristic.estimate(initial, prepro);
+		if (h0 == Heuristic.DEAD_END) return Optional.empty();
+		open.add(new Node(initial, 0, weight * h0));
+		bestG.put(new Key(initial, prepro), 0);
+		while (!open.isEmpty()) {
+			Node node = open.poll();
+			if (node.state.isSolved())
+				return Optional.of(node.state);
+			//stale entry superseded by a shorter path to the same state
+			if (bestG.get(new Key(node.state, prepro)) < node.g) continue;
+			++expanded;
+			int g = node.g + 1;
+			node.state.nextStates(prepro).forEachOrdered(s -> {
+				if (!s.isViable(prepro)) return;
+				Key key = new Key(s, prepro);
+				Integer oldG = bestG.get(key);
+				if (oldG != null && oldG <= g) return;
+				int h = heuristic.estimate(s, prepro);
+				if (h == Heuristic.DEAD_END) return;
+				bestG.put(key, g);
+				open.add(new Node(s, g, g + weight * h));
+			});
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Returns the number of states expanded by the last call to find().
+	 * @return the number of states expanded
+	 */
+	public int expanded() {
+		return expanded;
+	}
+}
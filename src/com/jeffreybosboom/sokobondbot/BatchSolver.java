@@ -0,0 +1,270 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves many puzzle files in one JVM on a bounded thread pool, writing a CSV
+ * report with one row per puzzle.  Each puzzle is searched sequentially; the
+ * puzzles themselves are the unit of parallelism.
+ * <p>
+ * Usage: BatchSolver [--threads N] [--time-limit SECONDS]
+ * [--memory-limit MEGABYTES] [--cache DIRECTORY] [--checkpoint DIRECTORY]
+ * [--report FILE] (puzzle-file | directory)...
+ * <p>
+ * Directories contribute their *.txt files.  With a solution cache, cached
+ * puzzles are reported without searching and new solutions are added.  With
+ * a checkpoint directory, each search checkpoints every few minutes to a
+ * file named for the puzzle's fingerprint, so a batch rerun after a crash or
+ * time limit resumes unfinished searches; checkpoints of finished searches
+ * are deleted.  Peak heap is sampled from the
+ * JVM while the puzzle runs, so it includes puzzles solved concurrently.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/16/2015
+ */
+public final class BatchSolver {
+	private static final String REPORT_HEADER =
+			"puzzle,status,wall_ms,states_expanded,closed_set_size,closed_set_bytes,solution_length,peak_heap_bytes";
+	private static final long HEAP_SAMPLE_INTERVAL_MS = 20;
+	private static final long CHECKPOINT_INTERVAL_MINUTES = 5;
+	private final int threads;
+	private final SearchLimits limits;
+	private final SolutionCache cache;
+	private final File checkpointDirectory;
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final Set<Job> running = ConcurrentHashMap.newKeySet();
+	public BatchSolver(int threads, SearchLimits limits, SolutionCache cache) {
+		this(threads, limits, cache, null);
+	}
+
+	/**
+	 * Creates a batch solver that checkpoints its searches to files in the
+	 * given directory.
+	 * @param threads the number of puzzles to solve at once
+	 * @param limits each search's time and memory budgets
+	 * @param cache the solution cache, or null
+	 * @param checkpointDirectory the checkpoint directory, or null
+	 */
+	public BatchSolver(int threads, SearchLimits limits, SolutionCache cache, File checkpointDirectory) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive: "+threads);
+		this.threads = threads;
+		this.limits = limits;
+		this.cache = cache;
+		this.checkpointDirectory = checkpointDirectory;
+	}
+
+	private final class Job {
+		private final File file;
+		private final AtomicLong peakHeap = new AtomicLong();
+		private String status;
+		private long wallMillis, expanded, closedSetSize, closedSetBytes;
+		private int solutionLength = -1;
+		private Job(File file) {
+			this.file = file;
+		}
+		private Job run() {
+			long start = System.nanoTime();
+			running.add(this);
+			sampleHeap();
+			Solver solver = null;
+			try {
+				Puzzle puzzle;
+				try {
+					puzzle = PuzzleFormat.read(file);
+				} catch (IOException | IllegalArgumentException ex) {
+					status = "bad-puzzle";
+					return this;
+				}
+				Optional<Path> solution = cache != null ? cache.get(puzzle) : Optional.empty();
+				if (solution.isPresent())
+					status = "cached";
+				else {
+					solver = new Solver(puzzle);
+					Checkpoint checkpoint = checkpointDirectory == null ? null :
+							new Checkpoint(new File(checkpointDirectory, String.format("%016x.ckpt", SolutionCache.fingerprint(puzzle))),
+									CHECKPOINT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+					solution = solver.solve(SearchEngine.breadthFirst(false, checkpoint), limits);
+					status = solution.isPresent() ? "solved" : "unsolvable";
+					if (checkpoint != null)
+						try {
+							checkpoint.delete();
+						} catch (IOException ex) {
+							status = "checkpoint-error";
+						}
+					if (solution.isPresent() && cache != null)
+						cache.put(puzzle, solution.get());
+				}
+				if (solution.isPresent()) {
+					solutionLength = 0;
+					for (Direction d : solution.get())
+						++solutionLength;
+				}
+			} catch (IOException ex) {
+				status = "cache-error";
+			} catch (UncheckedIOException ex) {
+				status = "checkpoint-error";
+			} catch (RuntimeException | OutOfMemoryError ex) {
+				SearchAbortedException abort = SearchAbortedException.find(ex);
+				if (abort != null)
+					status = abort.reason().toString().toLowerCase(Locale.ROOT).replace('_', '-');
+				else if (ex instanceof OutOfMemoryError)
+					status = "out-of-memory";
+				else
+					status = "error";
+			} finally {
+				sampleHeap();
+				running.remove(this);
+				wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				if (solver != null) {
+					expanded = solver.expanded();
+					closedSetSize = solver.closedSetSize();
+					closedSetBytes = solver.closedSetBytes();
+				}
+			}
+			return this;
+		}
+		private void sampleHeap() {
+			peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+		}
+		private String reportLine() {
+			return String.join(",", csvEscape(file.getPath()), status, Long.toString(wallMillis),
+					Long.toString(expanded), Long.toString(closedSetSize), Long.toString(closedSetBytes),
+					Integer.toString(solutionLength), Long.toString(peakHeap.get()));
+		}
+	}
+
+	/**
+	 * Solves the given puzzle files, writing report rows in input order.
+	 * @param files the puzzle files
+	 * @param report where to write the report
+	 * @return the number of puzzles solved
+	 * @throws InterruptedException if interrupted while waiting for puzzles
+	 */
+	public int run(List<File> files, PrintStream report) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "heap-sampler");
+			t.setDaemon(true);
+			return t;
+		});
+		sampler.scheduleAtFixedRate(() -> {
+			for (Job j : running)
+				j.sampleHeap();
+		}, HEAP_SAMPLE_INTERVAL_MS, HEAP_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+		int solved = 0;
+		try {
+			List<Future<Job>> futures = new ArrayList<>(files.size());
+			for (File f : files) {
+				Job job = new Job(f);
+				futures.add(pool.submit(job::run));
+			}
+			report.println(REPORT_HEADER);
+			for (Future<Job> f : futures) {
+				Job job;
+				try {
+					job = f.get();
+				} catch (ExecutionException ex) {
+					//Job.run() catches everything but other Errors
+					throw new RuntimeException(ex.getCause());
+				}
+				report.println(job.reportLine());
+				report.flush();
+				if (job.status.equals("solved") || job.status.equals("cached"))
+					++solved;
+			}
+		} finally {
+			pool.shutdownNow();
+			sampler.shutdownNow();
+		}
+		return solved;
+	}
+
+	private static String csvEscape(String s) {
+		if (s.indexOf(',') == -1 && s.indexOf('"') == -1)
+			return s;
+		return '"'+s.replace("\"", "\"\"")+'"';
+	}
+
+	private static List<File> expand(List<String> paths) {
+		List<File> files = new ArrayList<>();
+		for (String p : paths) {
+			File f = new File(p);
+			if (f.isDirectory()) {
+				File[] children = f.listFiles((dir, name) -> name.endsWith(".txt"));
+				Arrays.sort(children);
+				files.addAll(Arrays.asList(children));
+			} else
+				files.add(f);
+		}
+		return files;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		SearchLimits limits = SearchLimits.none();
+		File reportFile = null, cacheDirectory = null, checkpointDirectory = null;
+		List<String> paths = new ArrayList<>();
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "--time-limit":
+					limits = limits.withTimeLimit(Long.parseLong(args[++i]), TimeUnit.SECONDS);
+					break;
+				case "--memory-limit":
+					limits = limits.withMemoryLimit(Long.parseLong(args[++i]) << 20);
+					break;
+				case "--cache":
+					cacheDirectory = new File(args[++i]);
+					break;
+				case "--checkpoint":
+					checkpointDirectory = new File(args[++i]);
+					break;
+				case "--report":
+					reportFile = new File(args[++i]);
+					break;
+				default:
+					paths.add(args[i]);
+			}
+		}
+		if (paths.isEmpty()) {
+			System.err.println("usage: BatchSolver [--threads N] [--time-limit SECONDS] [--memory-limit MEGABYTES] [--cache DIRECTORY] [--checkpoint DIRECTORY] [--report FILE] (puzzle-file | directory)...");
+			System.exit(1);
+		}
+
+		List<File> files = expand(paths);
+		if (checkpointDirectory != null)
+			Files.createDirectories(checkpointDirectory.toPath());
+		long start = System.nanoTime();
+		int solved;
+		try (SolutionCache cache = cacheDirectory != null ? SolutionCache.open(cacheDirectory) : null;
+				PrintStream report = reportFile != null ? new PrintStream(reportFile, "UTF-8") : null) {
+			solved = new BatchSolver(threads, limits, cache, checkpointDirectory).run(files, report != null ? report : System.out);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.format("solved %d/%d puzzles in %.3f s (%.2f puzzles/s) on %d threads%n",
+				solved, files.size(), seconds, files.size() / seconds, threads);
+	}
+}
@@ -0,0 +1,27 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * A flag for cancelling a search from another thread.  Pass it to
+ * Solver.solve() (or to SearchLimits.withCancellation()); searches check it
+ * on every expansion and return an aborted result soon after cancel().
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/26/2015
+ */
+public final class CancellationToken implements BooleanSupplier {
+	private volatile boolean cancelled;
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean getAsBoolean() {
+		return cancelled;
+	}
+}
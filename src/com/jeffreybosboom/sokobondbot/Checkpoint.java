@@ -0,0 +1,349 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic checkpoints of a breadth-first search (PackedBFS), so a search cut
+ * short by a JVM exit or its limits can resume where it left off and finish
+ * with the same result.  A checkpoint holds the closed set, the frontier and
+ * the links of every expanded layer (from which the solution's path is
+ * rebuilt), streamed to a binary file:
+ * <pre>
+ * int MAGIC, int VERSION, int stride, int keyLongs, long initialHash,
+ * int[stride] initialAtoms,
+ * closed set blocks: int bonds, int keys, keys * (long hash, long[keyLongs] key),
+ * ended by a block with bonds -1,
+ * int floor, the search's layers (see PackedBFS), int MAGIC
+ * </pre>
+ * Checkpoints are written without stopping the search.  A checkpoint begins
+ * at a layer boundary by scanning the closed set on a background thread
+ * while the frontier is expanded.  Keys added during the scan are all in the
+ * next layer, so the checkpoint takes that layer as its frontier, and
+ * resuming adds the frontier's keys back.  The search only waits if the scan
+ * hasn't finished when the layer has.  The rest of the file (immutable once
+ * its layer is complete) is written while the next layer is expanded.
+ * <p/>
+ * Files are written beside the checkpoint and renamed over it once complete,
+ * so a crash mid-write leaves the previous checkpoint intact.  A Checkpoint
+ * is for one search at a time; resuming from a different puzzle's
+ * checkpoint fails.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/26/2015
+ */
+public final class Checkpoint {
+	//"SKCP"
+	private static final int MAGIC = 0x534B4350;
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+	//closed set keys per block
+	private static final int BLOCK_KEYS = 1 << 12;
+	private static final Executor WRITER = r -> {
+		Thread t = new Thread(r, "checkpoint-writer");
+		t.setDaemon(true);
+		t.start();
+	};
+	private final File file, temp;
+	private final long intervalNanos;
+	//identifies the search, set by start()
+	private int[] initialAtoms;
+	private long initialHash;
+	private int keyLongs;
+	private long lastNanos;
+	//the last checkpoint's write, once its scan is done
+	private CompletableFuture<Void> writing = CompletableFuture.completedFuture(null);
+	/**
+	 * Creates a checkpoint written to the given file at most once per the
+	 * given interval.
+	 * @param file the checkpoint file
+	 * @param interval the time between checkpoints
+	 * @param unit the unit of interval
+	 */
+	public Checkpoint(File file, long interval, TimeUnit unit) {
+		if (interval < 0)
+			throw new IllegalArgumentException("negative interval: "+interval);
+		this.file = file;
+		this.temp = new File(file.getPath()+".tmp");
+		this.intervalNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * Returns the checkpoint file.
+	 * @return the checkpoint file
+	 */
+	public File file() {
+		return file;
+	}
+
+	/**
+	 * Returns true if a checkpoint has been written to the file.
+	 * @return true if there's a checkpoint to resume from
+	 */
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * Deletes the checkpoint file, if it exists.  Searches don't delete their
+	 * checkpoints when they finish, so callers that don't want to resume
+	 * finished searches should.
+	 * @throws IOException if the file can't be deleted
+	 */
+	public void delete() throws IOException {
+		Files.deleteIfExists(file.toPath());
+	}
+
+	/**
+	 * Writes the layers of a search.
+	 */
+	@FunctionalInterface
+	interface LayerWriter {
+		public void write(DataOutput out) throws IOException;
+	}
+
+	/**
+	 * Reads the layers of a search written by a LayerWriter.
+	 */
+	@FunctionalInterface
+	interface LayerReader {
+		public void read(DataInput in) throws IOException;
+	}
+
+	/**
+	 * Prepares to checkpoint a search from the given initial state, whose
+	 * states have the given number of atoms and closed set keys have the
+	 * given width.  The first checkpoint is due one interval later.
+	 * @param initial the initial state
+	 * @param stride the number of atoms
+	 * @param keyLongs the number of longs per closed set key
+	 */
+	void start(StateUnboxed initial, int stride, int keyLongs) {
+		this.initialAtoms = new int[stride];
+		initial.copyAtoms(initialAtoms, 0);
+		this.initialHash = initial.hash();
+		this.keyLongs = keyLongs;
+		this.lastNanos = System.nanoTime();
+	}
+
+	/**
+	 * Begins a checkpoint, if one is due and the last one has been written,
+	 * by scanning the given closed set in the background.  Must be called at
+	 * a layer boundary, when no states are being added to the closed set.
+	 * @param closedSet the search's closed set
+	 * @return the checkpoint in progress, or null if none is due
+	 * @throws UncheckedIOException if writing the last checkpoint failed
+	 */
+	Snapshot begin(LayeredStateSet closedSet) {
+		if (!writing.isDone()) return null;
+		await();
+		long now = System.nanoTime();
+		if (now - lastNanos < intervalNanos) return null;
+		lastNanos = now;
+		return new Snapshot(closedSet);
+	}
+
+	/**
+	 * Waits for the last checkpoint to be written.
+	 * @throws UncheckedIOException if writing it failed
+	 */
+	void await() {
+		join(writing);
+	}
+
+	private static void join(CompletableFuture<Void> future) {
+		try {
+			future.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			throw ex;
+		}
+	}
+
+	/**
+	 * A checkpoint being written.
+	 */
+	final class Snapshot {
+		private final SearchEvents.Checkpoint event = new SearchEvents.Checkpoint();
+		private final LayeredStateSet closedSet;
+		private final FileChannel channel;
+		private final DataOutputStream out;
+		private final CompletableFuture<Void> scan;
+		private volatile boolean abandoned;
+		//the closed set block being filled
+		private final long[] block = new long[BLOCK_KEYS * (keyLongs + 1)];
+		private int blockBonds = -1, blockKeys;
+		private long keys;
+		private Snapshot(LayeredStateSet closedSet) {
+			event.begin();
+			this.closedSet = closedSet;
+			try {
+				this.channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+			this.scan = CompletableFuture.runAsync(this::writeClosedSet, WRITER);
+		}
+
+		private void writeClosedSet() {
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(initialAtoms.length);
+				out.writeInt(keyLongs);
+				out.writeLong(initialHash);
+				for (int a : initialAtoms)
+					out.writeInt(a);
+				closedSet.forEach(this::addKey);
+				writeBlock();
+				out.writeInt(-1);
+			} catch (IOException ex) {
+				discard();
+				throw new UncheckedIOException(ex);
+			} catch (RuntimeException ex) {
+				discard();
+				throw ex;
+			}
+		}
+
+		private void addKey(int bonds, long hash, long[] keys, int offset) {
+			if (abandoned)
+				throw new CancellationException("checkpoint abandoned");
+			try {
+				if (bonds != blockBonds || blockKeys == BLOCK_KEYS) {
+					writeBlock();
+					blockBonds = bonds;
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			int base = blockKeys++ * (keyLongs + 1);
+			block[base] = hash;
+			System.arraycopy(keys, offset, block, base + 1, keyLongs);
+		}
+
+		private void writeBlock() throws IOException {
+			if (blockKeys == 0) return;
+			out.writeInt(blockBonds);
+			out.writeInt(blockKeys);
+			for (int i = 0; i < blockKeys * (keyLongs + 1); ++i)
+				out.writeLong(block[i]);
+			keys += blockKeys;
+			blockKeys = 0;
+		}
+
+		/**
+		 * Completes this checkpoint with the given layers, written in the
+		 * background.  Must be called at the layer boundary after the one
+		 * this checkpoint began at, so the scan has only seen states in the
+		 * layers being written.  Waits for the scan if it isn't done.
+		 * @param depth the frontier's depth, for reporting
+		 * @param layers writes the search's layers
+		 * @throws UncheckedIOException if writing the closed set failed
+		 */
+		void finish(int depth, LayerWriter layers) {
+			join(scan);
+			int floor = closedSet.floor();
+			writing = CompletableFuture.runAsync(() -> {
+				try {
+					out.writeInt(floor);
+					layers.write(out);
+					out.writeInt(MAGIC);
+					out.flush();
+					channel.force(false);
+					out.close();
+					Files.move(temp.toPath(), file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException ex) {
+					discard();
+					throw new UncheckedIOException(ex);
+				}
+				if (event.shouldCommit()) {
+					event.depth = depth;
+					event.closedSetKeys = keys;
+					event.fileBytes = file.length();
+					event.commit();
+				}
+			}, WRITER);
+		}
+
+		/**
+		 * Abandons this checkpoint, leaving the last complete one in place.
+		 */
+		void abandon() {
+			abandoned = true;
+			scan.exceptionally(t -> null).join();
+			discard();
+		}
+
+		private void discard() {
+			try {
+				out.close();
+			} catch (IOException ex) {
+				//we're deleting it anyway
+			}
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Loads this checkpoint's closed set into the given empty closed set,
+	 * then reads the search's layers with the given reader.  start() must be
+	 * called first.
+	 * @param closedSet the closed set to load
+	 * @param layers reads the search's layers
+	 * @throws IOException if the file can't be read or is malformed
+	 * @throws IllegalArgumentException if the checkpoint is of a different
+	 * puzzle's search
+	 */
+	void restore(LayeredStateSet closedSet, LayerReader layers) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(file.toPath()), BUFFER_SIZE))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file+" is not a checkpoint");
+			int[] atoms = new int[in.readInt()];
+			int width = in.readInt();
+			long hash = in.readLong();
+			for (int i = 0; i < atoms.length; ++i)
+				atoms[i] = in.readInt();
+			if (width != keyLongs || hash != initialHash || !Arrays.equals(atoms, initialAtoms))
+				throw new IllegalArgumentException(file+" is a checkpoint of a different puzzle");
+
+			long[] key = new long[keyLongs];
+			for (int bonds; (bonds = in.readInt()) != -1;) {
+				int count = in.readInt();
+				for (int i = 0; i < count; ++i) {
+					long keyHash = in.readLong();
+					for (int j = 0; j < keyLongs; ++j)
+						key[j] = in.readLong();
+					closedSet.add(bonds, keyHash, (dst, offset) -> System.arraycopy(key, 0, dst, offset, key.length));
+				}
+			}
+			//the scan may have seen layers evicted before it finished
+			closedSet.evictBelow(in.readInt());
+			layers.read(in);
+			if (in.readInt() != MAGIC)
+				throw new IOException(file+" is corrupt");
+		}
+	}
+}
@@ -43,10 +43,14 @@ public final class Effector {
 		Puzzle puzzle = sensor.sense();
 
 		Solver solver = new Solver(puzzle);
-		Path solution = solver.solve();
+		SolveResult result;
+		try (SolutionCache cache = SolutionCache.open(cacheDirectory())) {
+			result = solver.solve(cache);
+		}
 
-		System.out.println(solution);
-		for (Direction d : solution) {
+		System.out.println(result);
+		if (!result.isSolved()) return;
+		for (Direction d : result.path()) {
 			int keycode = keycode(d);
 			robot.keyPress(keycode);
 			robot.keyRelease(keycode);
@@ -54,6 +58,13 @@ public final class Effector {
 		}
 	}
 
+	private static File cacheDirectory() {
+		String property = System.getProperty("sokobondbot.cache");
+		if (property != null)
+			return new File(property);
+		return new File(System.getProperty("user.home"), ".sokobondbot"+File.separator+"cache");
+	}
+
 	private static int keycode(Direction d) {
 		switch (d) {
 			case UP: return KeyEvent.VK_UP;
@@ -0,0 +1,493 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+/**
+ * Breadth-first search with its closed set and frontier on disk, for levels
+ * whose state spaces don't fit in the heap.  Duplicate detection is delayed:
+ * expanding a layer appends its successors to a bounded in-memory buffer,
+ * which is sorted by (total bonds, canonical key) and written out as a run
+ * file whenever it fills.  Once the layer is expanded, its runs are merged
+ * with the closed set file (the keys of every earlier layer, in the same
+ * order) in one streaming pass, which drops duplicates within the new layer
+ * and against the earlier layers, writing the next layer and the next closed
+ * set file.  (If there are too many runs to merge at once, groups of them are
+ * merged into longer runs first.)  All file access is sequential through
+ * direct buffers, except for one read per depth to rebuild the solution's
+ * path, so the search runs at disk bandwidth; heap use is the buffer plus one
+ * I/O buffer per open file.
+ * <p>
+ * As in PackedBFS, states are deduplicated by their canonical form under the
+ * playfield's symmetries but stored as reached, each with a link to its
+ * parent's index in the previous layer, and only the links are kept once a
+ * layer is expanded.  Sorting by bonds first puts the closed set's keys with
+ * fewer bonds than any new state (which can't recur, as bonds never
+ * decrease) at the front of the file, where the merge drops them.
+ * <p>
+ * Expansion is sequential; with parallel set, the buffer is sorted in
+ * parallel.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/27/2015
+ */
+public final class ExternalBFS {
+	private static final int IO_BUFFER_BYTES = 1 << 18;
+	//runs merged in one pass, bounding the merge's I/O buffers
+	private static final int MAX_FAN_IN = 64;
+	private final StateUnboxed.PreprocessedPuzzle prepro;
+	private final File directory;
+	private final SearchMetrics metrics;
+	private final SearchLimits limits;
+	private final boolean parallel;
+	private final StateUnboxed.Successor scratch;
+	private final int stride, keyLongs;
+	//a frontier record: bonds, canonical key, hash, link, atoms (two per long)
+	private final int recordLongs;
+	//a closed set record: bonds, canonical key
+	private final int closedLongs;
+	private final Comparator<long[]> order;
+	private final long[][] buffer;
+	private final int[] childAtoms;
+	private int buffered;
+	private long startNanos;
+	//the search's files are in this directory
+	private File work;
+	private int runCount;
+	//the link of the state being expanded, without its move
+	private long parentBits;
+	//the link (parent index and move) of a solved state, or -1
+	private long solutionLink;
+	/**
+	 * Creates a search keeping its files in a new subdirectory of the given
+	 * directory, buffering at most bufferStates states in memory.
+	 * @param prepro the preprocessed puzzle
+	 * @param directory the directory to put the search's files in
+	 * @param bufferStates the number of states per run
+	 * @param metrics the metrics to report to
+	 * @param limits the search's time and memory budgets
+	 * @param parallel whether to sort runs in parallel
+	 */
+	public ExternalBFS(StateUnboxed.PreprocessedPuzzle prepro, File directory, int bufferStates,
+			SearchMetrics metrics, SearchLimits limits, boolean parallel) {
+		if (bufferStates < 1)
+			throw new IllegalArgumentException("bufferStates must be positive: "+bufferStates);
+		this.prepro = prepro;
+		this.directory = directory;
+		this.metrics = metrics;
+		this.limits = limits;
+		this.parallel = parallel;
+		this.scratch = new StateUnboxed.Successor(prepro);
+		this.stride = prepro.atoms();
+		this.keyLongs = prepro.packedLongs();
+		this.closedLongs = 1 + keyLongs;
+		this.recordLongs = closedLongs + 2 + (stride + 1) / 2;
+		this.order = this::compareKeys;
+		this.buffer = new long[bufferStates][recordLongs];
+		this.childAtoms = new int[stride];
+	}
+
+	/**
+	 * Returns the number of states that fit in a buffer of the given size,
+	 * for the given puzzle.
+	 * @param prepro the preprocessed puzzle
+	 * @param bufferBytes the buffer size in bytes
+	 * @return the number of states per run
+	 */
+	public static int bufferStates(StateUnboxed.PreprocessedPuzzle prepro, long bufferBytes) {
+		int recordLongs = 1 + prepro.packedLongs() + 2 + (prepro.atoms() + 1) / 2;
+		//each row is an array with a 16-byte header, plus its reference
+		long states = bufferBytes / (recordLongs * Long.BYTES + 16 + 4);
+		return (int)Math.max(1, Math.min(states, Integer.MAX_VALUE - 8));
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the run buffer.
+	 * @return the buffer's memory footprint
+	 */
+	public long memoryBytes() {
+		return (long)buffer.length * (recordLongs * Long.BYTES + 16 + 4);
+	}
+
+	private int compareKeys(long[] a, long[] b) {
+		return Arrays.compare(a, 0, closedLongs, b, 0, closedLongs);
+	}
+
+	/**
+	 * Searches from the given initial state, returning a shortest path to a
+	 * solved state, or empty if no solved state is reachable.
+	 * @param initial the initial state
+	 * @return a shortest solution, or empty
+	 * @throws SearchAbortedException if the search exceeds its limits
+	 * @throws UncheckedIOException if reading or writing the search's files
+	 * fails
+	 */
+	public Optional<Path> find(StateUnboxed initial) {
+		this.startNanos = System.nanoTime();
+		if (initial.isSolved())
+			return Optional.of(initial.path());
+		try {
+			work = Files.createTempDirectory(directory.toPath(), "bfs").toFile();
+			try {
+				return search(initial);
+			} finally {
+				for (File f : work.listFiles())
+					f.delete();
+				work.delete();
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private Optional<Path> search(StateUnboxed initial) throws IOException {
+		long[] record = new long[recordLongs];
+		int[] atoms = new int[stride];
+		initial.copyAtoms(atoms, 0);
+		record[0] = initial.totalBonds();
+		initial.packCanonical(prepro, record, 1);
+		record[closedLongs] = initial.hash();
+		packAtoms(atoms, record);
+		try (Output layer = new Output(layerFile(0)); Output closed = new Output(closedFile(0))) {
+			layer.write(record, recordLongs);
+			closed.write(record, closedLongs);
+		}
+
+		long size = 1;
+		for (int depth = 0; size > 0; ++depth) {
+			long solutionLink = expand(depth);
+			layerFile(depth).delete();
+			if (solutionLink != -1)
+				return Optional.of(reconstruct(depth, solutionLink));
+			List<File> runs = new ArrayList<>();
+			for (int i = 0; i < runCount; ++i)
+				runs.add(runFile(i));
+			while (runs.size() > MAX_FAN_IN) {
+				List<File> group = runs.subList(0, MAX_FAN_IN);
+				File merged = runFile(runCount++);
+				mergeRuns(new ArrayList<>(group), merged);
+				group.clear();
+				runs.add(merged);
+			}
+			size = merge(runs, depth + 1);
+			closedFile(depth).delete();
+		}
+		return Optional.empty();
+	}
+
+	//expands the layer at the given depth into run files, returning the link
+	//of a solved state, or -1
+	private long expand(int depth) throws IOException {
+		int[] atoms = new int[stride];
+		solutionLink = -1;
+		runCount = 0;
+		try (Input layer = new Input(layerFile(depth), recordLongs)) {
+			for (long i = 0; solutionLink == -1 && layer.next(); ++i) {
+				long[] r = layer.record();
+				unpackAtoms(r, atoms);
+				long hash = r[closedLongs];
+				metrics.expanded(depth);
+				limits.checkCancelled();
+				//checking limits on a hash-selected sample keeps the clock reads
+				//off the common path
+				if ((hash & 0xFF) == 0)
+					limits.check(startNanos, memoryBytes());
+				parentBits = i << 2;
+				try {
+					StateUnboxed.forEachSuccessor(atoms, hash, scratch, this::visit);
+				} catch (UncheckedIOException ex) {
+					throw ex.getCause();
+				}
+			}
+		}
+		if (solutionLink == -1 && buffered > 0)
+			spill();
+		buffered = 0;
+		return solutionLink;
+	}
+
+	private void visit(StateUnboxed.Successor c) {
+		if (solutionLink != -1) return;
+		if (!c.isViable()) {
+			metrics.rejectedNotViable();
+			return;
+		}
+		long link = parentBits | c.direction().ordinal();
+		if (c.isSolved()) {
+			solutionLink = link;
+			return;
+		}
+		long[] row = buffer[buffered++];
+		row[0] = c.totalBonds();
+		c.canonicalKey().writeTo(row, 1);
+		row[closedLongs] = c.hash();
+		row[closedLongs + 1] = link;
+		c.copyAtoms(childAtoms, 0);
+		packAtoms(childAtoms, row);
+		if (buffered == buffer.length)
+			try {
+				spill();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+	}
+
+	//sorts the buffer and writes it as a run, dropping duplicates
+	private void spill() throws IOException {
+		if (parallel)
+			Arrays.parallelSort(buffer, 0, buffered, order);
+		else
+			Arrays.sort(buffer, 0, buffered, order);
+		try (Output run = new Output(runFile(runCount++))) {
+			for (int i = 0; i < buffered; ++i)
+				if (i > 0 && compareKeys(buffer[i-1], buffer[i]) == 0)
+					metrics.rejectedDuplicate();
+				else
+					run.write(buffer[i], recordLongs);
+		}
+		buffered = 0;
+	}
+
+	//merges runs into one longer run, dropping duplicates
+	private void mergeRuns(List<File> runs, File merged) throws IOException {
+		try (Merger merger = new Merger(runs); Output out = new Output(merged)) {
+			for (long[] r; (r = merger.next()) != null;)
+				out.write(r, recordLongs);
+		}
+		for (File f : runs)
+			f.delete();
+	}
+
+	//merges the runs against the closed set of the previous depth, writing
+	//the layer, its links and the closed set at the given depth; returns the
+	//layer's size
+	private long merge(List<File> runs, int depth) throws IOException {
+		long size = 0;
+		try (Merger merger = new Merger(runs);
+				Input closed = new Input(closedFile(depth - 1), closedLongs);
+				Output layer = new Output(layerFile(depth));
+				Output links = new Output(linksFile(depth));
+				Output nextClosed = new Output(closedFile(depth))) {
+			long[] r = merger.next();
+			//runs are sorted by bonds first, so no new state has fewer
+			//bonds than the first
+			long floor = r != null ? r[0] : Long.MAX_VALUE;
+			boolean more = closed.next();
+			for (; r != null; r = merger.next()) {
+				int c = -1;
+				for (; more && (c = compareKeys(closed.record(), r)) < 0; more = closed.next())
+					if (closed.record()[0] >= floor)
+						nextClosed.write(closed.record(), closedLongs);
+				if (more && c == 0) {
+					metrics.rejectedDuplicate();
+					continue;
+				}
+				metrics.accepted(depth);
+				layer.write(r, recordLongs);
+				links.writeLong(r[closedLongs + 1]);
+				nextClosed.write(r, closedLongs);
+				++size;
+			}
+			for (; more; more = closed.next())
+				if (closed.record()[0] >= floor)
+					nextClosed.write(closed.record(), closedLongs);
+		}
+		for (File f : runs)
+			f.delete();
+		return size;
+	}
+
+	//follows links from the solved state back to the initial state
+	private Path reconstruct(int depth, long solutionLink) throws IOException {
+		SearchEvents.SolutionReconstruction event = new SearchEvents.SolutionReconstruction();
+		event.begin();
+		Direction[] directions = Direction.values(), moves = new Direction[depth + 1];
+		long link = solutionLink;
+		ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+		for (int d = depth; ; --d) {
+			moves[d] = directions[(int)(link & 3)];
+			if (d == 0) break;
+			try (FileChannel links = FileChannel.open(linksFile(d).toPath(), StandardOpenOption.READ)) {
+				buf.clear();
+				long position = (link >>> 2) * Long.BYTES;
+				while (buf.hasRemaining())
+					if (links.read(buf, position + buf.position()) == -1)
+						throw new IOException(linksFile(d)+" is truncated");
+			}
+			link = buf.getLong(0);
+		}
+		Path path = ListPath.of(Arrays.asList(moves));
+		if (event.shouldCommit()) {
+			event.length = moves.length;
+			event.commit();
+		}
+		return path;
+	}
+
+	private void packAtoms(int[] atoms, long[] record) {
+		int base = closedLongs + 2;
+		for (int i = 0; i < stride; i += 2)
+			record[base + i / 2] = (long)atoms[i] << 32 |
+					(i + 1 < stride ? atoms[i + 1] & 0xFFFFFFFFL : 0);
+	}
+
+	private void unpackAtoms(long[] record, int[] atoms) {
+		int base = closedLongs + 2;
+		for (int i = 0; i < stride; i += 2) {
+			atoms[i] = (int)(record[base + i / 2] >>> 32);
+			if (i + 1 < stride)
+				atoms[i + 1] = (int)record[base + i / 2];
+		}
+	}
+
+	private File layerFile(int depth) {
+		return new File(work, "layer-"+depth);
+	}
+
+	private File linksFile(int depth) {
+		return new File(work, "links-"+depth);
+	}
+
+	private File closedFile(int depth) {
+		return new File(work, "closed-"+depth);
+	}
+
+	private File runFile(int run) {
+		return new File(work, "run-"+run);
+	}
+
+	/**
+	 * Merges sorted runs, returning each distinct key once.
+	 */
+	private final class Merger implements Closeable {
+		private final List<Input> inputs = new ArrayList<>();
+		private final PriorityQueue<Input> queue = new PriorityQueue<>(
+				(a, b) -> compareKeys(a.record(), b.record()));
+		private final long[] last = new long[recordLongs];
+		private boolean first = true;
+		private Merger(List<File> runs) throws IOException {
+			try {
+				for (File f : runs) {
+					Input in = new Input(f, recordLongs);
+					inputs.add(in);
+					if (in.next())
+						queue.add(in);
+				}
+			} catch (IOException | RuntimeException ex) {
+				close();
+				throw ex;
+			}
+		}
+		//returns the next distinct record (valid until the next call), or
+		//null if there are no more
+		private long[] next() throws IOException {
+			while (!queue.isEmpty()) {
+				Input in = queue.poll();
+				boolean duplicate = !first && compareKeys(last, in.record()) == 0;
+				System.arraycopy(in.record(), 0, last, 0, recordLongs);
+				first = false;
+				if (in.next())
+					queue.add(in);
+				if (duplicate)
+					metrics.rejectedDuplicate();
+				else
+					return last;
+			}
+			return null;
+		}
+		@Override
+		public void close() throws IOException {
+			for (Input in : inputs)
+				in.close();
+		}
+	}
+
+	/**
+	 * Sequential writes through a direct buffer.
+	 */
+	private static final class Output implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+		private Output(File file) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		private void write(long[] record, int longs) throws IOException {
+			if (buffer.remaining() < longs * Long.BYTES)
+				flush();
+			for (int i = 0; i < longs; ++i)
+				buffer.putLong(record[i]);
+		}
+		private void writeLong(long x) throws IOException {
+			if (buffer.remaining() < Long.BYTES)
+				flush();
+			buffer.putLong(x);
+		}
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Sequential reads of fixed-width records through a direct buffer.
+	 */
+	private static final class Input implements Closeable {
+		private final File file;
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+		private final long[] record;
+		private Input(File file, int longs) throws IOException {
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.record = new long[longs];
+			buffer.limit(0);
+		}
+		//reads the next record, returning false at the end of the file
+		private boolean next() throws IOException {
+			int bytes = record.length * Long.BYTES;
+			if (buffer.remaining() < bytes) {
+				buffer.compact();
+				while (buffer.hasRemaining() && channel.read(buffer) != -1);
+				buffer.flip();
+				if (buffer.remaining() < bytes) {
+					if (buffer.hasRemaining())
+						throw new IOException(file+" is truncated");
+					return false;
+				}
+			}
+			for (int i = 0; i < record.length; ++i)
+				record[i] = buffer.getLong();
+			return true;
+		}
+		//the record read by the last call to next()
+		private long[] record() {
+			return record;
+		}
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
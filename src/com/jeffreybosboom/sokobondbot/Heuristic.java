@@ -0,0 +1,33 @@
+package com.jeffreybosboom.sokobondbot;
+
+/**
+ * Estimates the number of moves remaining before a state is solved.  Optimal
+ * searches require admissible heuristics (never overestimating); a heuristic
+ * returns {@link #DEAD_END} for states that can never be solved.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/2/2015
+ */
+@FunctionalInterface
+public interface Heuristic {
+	public static final int DEAD_END = Integer.MAX_VALUE;
+
+	public int estimate(StateUnboxed state, StateUnboxed.PreprocessedPuzzle prepro);
+
+	/**
+	 * The default admissible heuristic, based on the distances between atoms
+	 * with free electrons and the partners they could still bond with.
+	 * @return the default heuristic
+	 * @see StateUnboxed#remainingMovesLowerBound(StateUnboxed.PreprocessedPuzzle)
+	 */
+	public static Heuristic electronDistance() {
+		return StateUnboxed::remainingMovesLowerBound;
+	}
+
+	/**
+	 * The zero heuristic, which makes A* behave like uniform-cost search.
+	 * @return the zero heuristic
+	 */
+	public static Heuristic zero() {
+		return (s, p) -> 0;
+	}
+}
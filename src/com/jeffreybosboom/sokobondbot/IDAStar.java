@@ -0,0 +1,95 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.Iterator;
+import java.util.Optional;
+
+/**
+ * Iterative-deepening A* over StateUnboxed.  Each iteration is a depth-first
+ * search bounded by g + h; the next iteration's bound is the smallest f that
+ * exceeded the current one.  When a subtree fails, the f it returned is a
+ * lower bound on the moves remaining from its root, which is recorded in a
+ * fixed-size transposition table and used to prune transpositions both within
+ * and across iterations.  Memory use is the transposition table plus one
+ * stack frame per move of the solution.
+ * <p/>
+ * IDA* can't prove a cyclic state space unsolvable (every cycle just raises
+ * the bound), so the search gives up once the bound passes MAX_BOUND moves.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/3/2015
+ */
+public final class IDAStar {
+	private static final int INFINITY = Integer.MAX_VALUE;
+	//recursion depth is the bound, so stop well short of overflowing stacks
+	private static final int MAX_BOUND = 1 << 10;
+	private final StateUnboxed.PreprocessedPuzzle prepro;
+	private final Heuristic heuristic;
+	private final TranspositionTable table;
+	private int bound;
+	private StateUnboxed solution;
+	private long expanded;
+	public IDAStar(StateUnboxed.PreprocessedPuzzle prepro, Heuristic heuristic, TranspositionTable table) {
+		this.prepro = prepro;
+		this.heuristic = heuristic;
+		this.table = table;
+	}
+
+	/**
+	 * Searches from the given initial state, returning a solved state, or
+	 * empty if no solved state is reachable.
+	 * @param initial the initial state
+	 * @return a solved state, or empty
+	 * @throws SearchAbortedException with DEPTH_LIMIT if the bound exceeds
+	 * MAX_BOUND moves
+	 */
+	public Optional<StateUnboxed> find(StateUnboxed initial) {
+		solution = null;
+		expanded = 0;
+		bound = 0;
+		while (true) {
+			int next = search(initial, 0);
+			if (solution != null)
+				return Optional.of(solution);
+			if (next == INFINITY)
+				return Optional.empty();
+			if (next > MAX_BOUND)
+				throw new SearchAbortedException(SearchAbortedException.Reason.DEPTH_LIMIT);
+			bound = next;
+		}
+	}
+
+	//returns the smallest f exceeding the bound in this subtree (INFINITY if
+	//none), or -1 if a solution was found
+	private int search(StateUnboxed state, int g) {
+		int h = heuristic.estimate(state, prepro);
+		if (h == Heuristic.DEAD_END) return INFINITY;
+		long fingerprint = state.hash();
+		h = Math.max(h, table.lowerBound(fingerprint));
+		if (h == INFINITY) return INFINITY;
+		if (g + h > bound) return g + h;
+		if (state.isSolved()) {
+			solution = state;
+			return -1;
+		}
+
+		++expanded;
+		int min = INFINITY;
+		for (Iterator<StateUnboxed> it = state.nextStates(prepro).iterator(); it.hasNext();) {
+			StateUnboxed next = it.next();
+			if (!next.isViable(prepro)) continue;
+			int f = search(next, g + 1);
+			if (f == -1) return -1;
+			min = Math.min(min, f);
+		}
+		table.store(fingerprint, min == INFINITY ? INFINITY : min - g, bound - g);
+		return min;
+	}
+
+	/**
+	 * Returns the number of states expanded by the last call to find(), over
+	 * all iterations.
+	 * @return the number of states expanded
+	 */
+	public long expanded() {
+		return expanded;
+	}
+}
@@ -0,0 +1,149 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A closed set sharded into one PackedStateSet per total bond count.  States
+ * can only be equal if they have the same number of bonds, so each shard is
+ * searched independently.  Without splitters, bonds never decrease, so once
+ * every frontier state has at least N bonds, no state with fewer can be
+ * generated again and the shards below N can be dropped whole, rather than
+ * scanning the set for them.  Memory then follows the live bond layers, not
+ * the whole search.
+ * <p/>
+ * Shards are created on first use.  add() is thread-safe; evictBelow() may
+ * run concurrently with add(), but the caller must ensure no evicted layer
+ * is added to afterward.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/22/2015
+ */
+public final class LayeredStateSet {
+	private final int keyLongs;
+	private final long expectedLayerSize;
+	private final AtomicReferenceArray<PackedStateSet> layers;
+	//layers below this have been evicted
+	private volatile int floor;
+	/**
+	 * Creates a set of keys of the given width.
+	 * @param keyLongs the number of longs per key
+	 * @param layers the number of bond layers (one more than the maximum
+	 * total bonds)
+	 * @param expectedLayerSize the expected number of keys in each layer
+	 */
+	public LayeredStateSet(int keyLongs, int layers, long expectedLayerSize) {
+		if (keyLongs < 1)
+			throw new IllegalArgumentException("keyLongs must be positive: "+keyLongs);
+		this.keyLongs = keyLongs;
+		this.expectedLayerSize = expectedLayerSize;
+		this.layers = new AtomicReferenceArray<>(layers);
+	}
+
+	/**
+	 * Adds the given key, which has the given number of bonds, to this set.
+	 * Equal keys must have equal hashes.
+	 * @param bonds the key's total bonds
+	 * @param hash the key's hash
+	 * @param key writes the key, if needed
+	 * @return true if the key was not already present
+	 * @throws IllegalStateException if the key's layer has been evicted
+	 */
+	public boolean add(int bonds, long hash, PackedStateSet.Key key) {
+		if (bonds < floor)
+			throw new IllegalStateException("layer "+bonds+" was evicted (floor "+floor+")");
+		PackedStateSet layer = layers.get(bonds);
+		if (layer == null) {
+			layers.compareAndSet(bonds, null, new PackedStateSet(keyLongs, expectedLayerSize));
+			layer = layers.get(bonds);
+		}
+		return layer.add(hash, key);
+	}
+
+	/**
+	 * Drops every layer with fewer than the given number of bonds.  Does
+	 * nothing if those layers were already dropped.
+	 * @param minBonds the fewest bonds any future key will have
+	 * @return the number of keys dropped
+	 */
+	public long evictBelow(int minBonds) {
+		minBonds = Math.min(minBonds, layers.length());
+		long removed = 0;
+		for (int i = floor; i < minBonds; ++i) {
+			PackedStateSet layer = layers.getAndSet(i, null);
+			if (layer != null)
+				removed += layer.size();
+		}
+		if (minBonds > floor)
+			floor = minBonds;
+		return removed;
+	}
+
+	/**
+	 * Visits a key in place.
+	 */
+	@FunctionalInterface
+	public interface KeyVisitor {
+		/**
+		 * Visits the key with the given bonds and hash occupying keyLongs
+		 * longs of keys, starting at offset.
+		 * @param bonds the key's total bonds
+		 * @param hash the key's hash
+		 * @param keys the array containing the key
+		 * @param offset the index of the key's first long
+		 */
+		public void visit(int bonds, long hash, long[] keys, int offset);
+	}
+
+	/**
+	 * Visits every key in the live layers, in order of bonds.  As with
+	 * PackedStateSet.forEach(), this may be called concurrently with add(),
+	 * and every key added before the call is visited if no add() was in
+	 * progress when it was made.
+	 * @param visitor the visitor
+	 */
+	public void forEach(KeyVisitor visitor) {
+		for (int i = floor; i < layers.length(); ++i) {
+			PackedStateSet layer = layers.get(i);
+			if (layer == null) continue;
+			int bonds = i;
+			layer.forEach((hash, keys, offset) -> visitor.visit(bonds, hash, keys, offset));
+		}
+	}
+
+	/**
+	 * Returns the fewest bonds a key can have without its layer having been
+	 * evicted.
+	 * @return the lowest live layer
+	 */
+	public int floor() {
+		return floor;
+	}
+
+	/**
+	 * Returns the number of keys in the live layers.  Concurrent insertions
+	 * may or may not be reflected.
+	 * @return the number of keys in this set
+	 */
+	public long size() {
+		long size = 0;
+		for (int i = 0; i < layers.length(); ++i) {
+			PackedStateSet layer = layers.get(i);
+			if (layer != null)
+				size += layer.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the live layers.
+	 * @return the approximate memory footprint
+	 */
+	public long memoryBytes() {
+		long bytes = 0;
+		for (int i = 0; i < layers.length(); ++i) {
+			PackedStateSet layer = layers.get(i);
+			if (layer != null)
+				bytes += layer.memoryBytes();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,49 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * A path stored as a pointer to its prefix plus its last move, so appending
+ * is O(1) and paths that share a prefix share its storage.  There's no limit
+ * on length.  Iteration walks back to the start, so it's O(length) to begin.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/21/2015
+ */
+public final class LinkedPath implements Path {
+	private static final LinkedPath EMPTY = new LinkedPath(null, null, 0);
+	private final LinkedPath prefix;
+	private final Direction last;
+	private final int length;
+	private LinkedPath(LinkedPath prefix, Direction last, int length) {
+		this.prefix = prefix;
+		this.last = last;
+		this.length = length;
+	}
+
+	public static LinkedPath empty() {
+		return EMPTY;
+	}
+
+	@Override
+	public LinkedPath append(Direction d) {
+		return new LinkedPath(this, d, length + 1);
+	}
+
+	@Override
+	public Iterator<Direction> iterator() {
+		Direction[] moves = new Direction[length];
+		for (LinkedPath p = this; p.length > 0; p = p.prefix)
+			moves[p.length - 1] = p.last;
+		return Arrays.asList(moves).iterator();
+	}
+
+	@Override
+	public String toString() {
+		return StreamSupport.stream(spliterator(), false)
+				.map(Direction::toString)
+				.collect(Collectors.joining(", "));
+	}
+}
@@ -20,6 +20,10 @@ public final class ListPath implements Path {
 		return new ListPath(ImmutableList.of());
 	}
 
+	public static ListPath of(Iterable<Direction> moves) {
+		return new ListPath(ImmutableList.copyOf(moves));
+	}
+
 	@Override
 	public ListPath append(Direction d) {
 		return new ListPath(ImmutableList.<Direction>builder().addAll(foo).add(d).build());
@@ -0,0 +1,142 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Breadth-first search over macro moves.  A walk is a move that only moves the
+ * player's molecule and forms no bonds; an event is any other legal move (one
+ * that pushes something or forms a bond).  A macro move is any number of
+ * walks followed by one event, so the search's depth is the number of events
+ * and states differing only in where the player's molecule stands in the
+ * same walkable region are expanded once.
+ * <p/>
+ * Expanding a state flood-fills the player molecule's walkable region, then
+ * tries every event from every position in it.  States are deduplicated when
+ * dequeued, keyed by the region's position with the lowest player cell, so
+ * the flood fill is done once per expansion rather than once per successor.
+ * <p/>
+ * The returned solution has the fewest events, not necessarily the fewest
+ * moves.  Its path spells out every walk and event move.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/23/2015
+ */
+public final class MacroBFS {
+	private final StateUnboxed.PreprocessedPuzzle prepro;
+	private final StateUnboxed.Successor scratch;
+	private final long[] key;
+	private PackedStateSet closedSet;
+	private long expanded, positions;
+	public MacroBFS(StateUnboxed.PreprocessedPuzzle prepro) {
+		this.prepro = prepro;
+		this.scratch = new StateUnboxed.Successor(prepro);
+		this.key = new long[prepro.packedLongs()];
+	}
+
+	public Optional<StateUnboxed> find(StateUnboxed initial) {
+		expanded = positions = 0;
+		closedSet = new PackedStateSet(prepro.packedLongs(), 1 << 12);
+		if (initial.isSolved())
+			return Optional.of(initial);
+		List<StateUnboxed> frontier = new ArrayList<>();
+		frontier.add(initial);
+		while (!frontier.isEmpty()) {
+			List<StateUnboxed> next = new ArrayList<>();
+			for (StateUnboxed state : frontier) {
+				List<StateUnboxed> region = walk(state);
+				if (!closedSet.add(normalize(region).hash(), this::writeKey)) continue;
+				++expanded;
+				positions += region.size();
+				Optional<StateUnboxed> solution = events(region, next);
+				if (solution.isPresent())
+					return solution;
+			}
+			frontier = next;
+		}
+		return Optional.empty();
+	}
+
+	//returns the positions the player's molecule can walk to from the given
+	//state, starting with the state itself
+	private List<StateUnboxed> walk(StateUnboxed state) {
+		char molecule = state.molecule(0);
+		int bonds = state.totalBonds();
+		List<StateUnboxed> region = new ArrayList<>();
+		region.add(state);
+		long[] visited = new long[4];
+		visited[state.playerCell() >> 6] |= 1L << state.playerCell();
+		for (int i = 0; i < region.size(); ++i)
+			region.get(i).forEachSuccessor(scratch, s -> {
+				if (s.moved() != molecule || s.totalBonds() != bonds) return;
+				int cell = s.playerCell();
+				if ((visited[cell >> 6] & (1L << cell)) != 0) return;
+				visited[cell >> 6] |= 1L << cell;
+				region.add(s.toState());
+			});
+		return region;
+	}
+
+	//packs the region's position with the lowest player cell into key,
+	//returning it
+	private StateUnboxed normalize(List<StateUnboxed> region) {
+		StateUnboxed min = region.get(0);
+		for (StateUnboxed s : region)
+			if (s.playerCell() < min.playerCell())
+				min = s;
+		min.pack(prepro, key, 0);
+		return min;
+	}
+
+	private void writeKey(long[] dst, int offset) {
+		System.arraycopy(key, 0, dst, offset, key.length);
+	}
+
+	//adds the results of every event from the region to next, returning a
+	//solved state if one is found
+	private Optional<StateUnboxed> events(List<StateUnboxed> region, List<StateUnboxed> next) {
+		char molecule = region.get(0).molecule(0);
+		int bonds = region.get(0).totalBonds();
+		StateUnboxed[] solution = {null};
+		for (StateUnboxed state : region) {
+			state.forEachSuccessor(scratch, s -> {
+				if (s.moved() == molecule && s.totalBonds() == bonds) return;
+				if (!s.isViable() || solution[0] != null) return;
+				StateUnboxed event = s.toState();
+				if (event.isSolved())
+					solution[0] = event;
+				else
+					next.add(event);
+			});
+			if (solution[0] != null)
+				return Optional.of(solution[0]);
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Returns the number of macro states expanded by the last call to find().
+	 * @return the number of macro states expanded
+	 */
+	public long expanded() {
+		return expanded;
+	}
+
+	/**
+	 * Returns the number of player positions visited by the walk flood fills
+	 * of the last call to find().
+	 * @return the number of walk positions visited
+	 */
+	public long positions() {
+		return positions;
+	}
+
+	/**
+	 * Returns the number of macro states in the closed set after the last
+	 * call to find().
+	 * @return the closed set size
+	 */
+	public long closedSetSize() {
+		return closedSet != null ? closedSet.size() : 0;
+	}
+}
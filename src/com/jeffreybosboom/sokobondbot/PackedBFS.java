@@ -0,0 +1,391 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+/**
+ * Layer-synchronous breadth-first search that stores each layer's states
+ * back-to-back in primitive arrays rather than as StateUnboxed objects.  A
+ * queued state costs its atoms (one int each), its fingerprint and a link
+ * (an int holding its parent's index in the previous layer and the 2-bit move
+ * from the parent), with no object headers or pointers.  States are expanded
+ * through a flyweight: the atoms are copied into a per-task buffer and
+ * passed to StateUnboxed.forEachSuccessor().
+ * <p>
+ * Once a layer is expanded, only its links are kept, so a state costs four
+ * bytes after leaving the frontier.  The solution's path is rebuilt from the
+ * links once at the end, so solution length is unbounded.
+ * <p>
+ * Each layer is split into fixed-size tasks, expanded in parallel (or not),
+ * and each task appends to its own segment of the next layer, so appends are
+ * uncontended.
+ * <p>
+ * The closed set is layered by total bonds.  After each layer, the closed
+ * set's layers with fewer bonds than any state in the new frontier are
+ * dropped, since bonds never decrease.  States are added to the closed set in
+ * their canonical form under the playfield's symmetries, so each class of
+ * symmetric states is expanded once.  The queued states themselves aren't
+ * canonicalized, so the links still spell out the moves actually made.
+ * <p>
+ * With a Checkpoint, the search periodically saves its closed set, frontier
+ * and links without stopping, and resumes from the checkpoint file if it
+ * exists.  The layers are saved as:
+ * <pre>
+ * int layers, then per layer: int segments, per segment: int size, int[size] links
+ * int segments, then per frontier segment: int size, int[size * stride] atoms,
+ * int[size] links, long[size] hashes
+ * </pre>
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/20/2015
+ */
+public final class PackedBFS {
+	//states per expansion task
+	private static final int TASK_SIZE = 4096;
+	//links hold a parent index above the 2-bit move
+	private static final int MAX_LAYER_SIZE = 1 << (Integer.SIZE - 1 - 2);
+	private final StateUnboxed.PreprocessedPuzzle prepro;
+	private final LayeredStateSet closedSet;
+	private final StateUnboxed.ClosedSetPruner pruner;
+	private final SearchMetrics metrics;
+	private final SearchLimits limits;
+	private final boolean parallel;
+	private final Checkpoint checkpoint;
+	private final ThreadLocal<StateUnboxed.Successor> scratch;
+	private final int stride;
+	//the link (parent index and move) of a solved state, or -1
+	private volatile int solutionLink = -1;
+	//the checkpoint whose closed set scan began at this layer boundary
+	private Checkpoint.Snapshot snapshot;
+	private long startNanos;
+	public PackedBFS(StateUnboxed.PreprocessedPuzzle prepro, LayeredStateSet closedSet,
+			SearchMetrics metrics, SearchLimits limits, boolean parallel) {
+		this(prepro, closedSet, metrics, limits, parallel, null);
+	}
+
+	/**
+	 * Creates a search that checkpoints to (and resumes from) the given
+	 * checkpoint.
+	 * @param prepro the preprocessed puzzle
+	 * @param closedSet the closed set, which must be empty
+	 * @param metrics the metrics to report to
+	 * @param limits the search's time and memory budgets
+	 * @param parallel whether to expand each layer in parallel
+	 * @param checkpoint the checkpoint, or null
+	 */
+	public PackedBFS(StateUnboxed.PreprocessedPuzzle prepro, LayeredStateSet closedSet,
+			SearchMetrics metrics, SearchLimits limits, boolean parallel, Checkpoint checkpoint) {
+		this.prepro = prepro;
+		this.closedSet = closedSet;
+		this.pruner = new StateUnboxed.ClosedSetPruner(closedSet, metrics);
+		this.metrics = metrics;
+		this.limits = limits;
+		this.parallel = parallel;
+		this.checkpoint = checkpoint;
+		this.scratch = ThreadLocal.withInitial(() -> new StateUnboxed.Successor(prepro));
+		this.stride = prepro.atoms();
+	}
+
+	/**
+	 * A run of packed states, all at the same depth.  Written by one thread,
+	 * then read by many.
+	 */
+	private static final class Segment {
+		private final int stride;
+		private int[] atoms, links;
+		private long[] hashes;
+		private int size;
+		private int minBonds = Integer.MAX_VALUE;
+		private Segment(int stride, int capacity) {
+			this.stride = stride;
+			this.atoms = new int[capacity * stride];
+			this.links = new int[capacity];
+			this.hashes = new long[capacity];
+		}
+		private Segment(int stride, int[] atoms, int[] links, long[] hashes, int size) {
+			this.stride = stride;
+			this.atoms = atoms;
+			this.links = links;
+			this.hashes = hashes;
+			this.size = size;
+		}
+		private void add(StateUnboxed.Successor s, int link) {
+			if (size == hashes.length) {
+				int capacity = Math.max(16, size + (size >> 1));
+				atoms = Arrays.copyOf(atoms, capacity * stride);
+				links = Arrays.copyOf(links, capacity);
+				hashes = Arrays.copyOf(hashes, capacity);
+			}
+			s.copyAtoms(atoms, size * stride);
+			links[size] = link;
+			hashes[size] = s.hash();
+			minBonds = Math.min(minBonds, s.totalBonds());
+			++size;
+		}
+		//drops growth slack once the segment is complete
+		private Segment trim() {
+			if (size < hashes.length) {
+				atoms = Arrays.copyOf(atoms, size * stride);
+				links = Arrays.copyOf(links, size);
+				hashes = Arrays.copyOf(hashes, size);
+			}
+			return this;
+		}
+		//drops everything but the links once the segment has been expanded
+		private void retire() {
+			atoms = null;
+			hashes = null;
+		}
+		//a segment sharing this one's arrays, unaffected by retire()
+		private Segment share() {
+			return new Segment(stride, atoms, links, hashes, size);
+		}
+	}
+
+	/**
+	 * A completed layer: its segments and the index of each one's first state.
+	 */
+	private static final class Layer {
+		private final List<Segment> segments;
+		private final int[] starts;
+		private Layer(List<Segment> segments) {
+			this.segments = segments;
+			this.starts = new int[segments.size() + 1];
+			for (int i = 0; i < segments.size(); ++i)
+				starts[i+1] = starts[i] + segments.get(i).size;
+			//links can't index a larger layer, so we're out of memory by design
+			if (size() > MAX_LAYER_SIZE)
+				throw new SearchAbortedException(SearchAbortedException.Reason.MEMORY_LIMIT);
+		}
+		private int size() {
+			return starts[segments.size()];
+		}
+		//the segment containing the given state index
+		private int segmentOf(int index) {
+			int s = Arrays.binarySearch(starts, index);
+			//segments are never empty, so equal starts can't occur
+			return s >= 0 ? s : -s - 2;
+		}
+		private int link(int index) {
+			int s = segmentOf(index);
+			return segments.get(s).links[index - starts[s]];
+		}
+	}
+
+	/**
+	 * Searches from the given initial state, returning a shortest path to a
+	 * solved state, or empty if no solved state is reachable.  If this search
+	 * has a checkpoint and its file exists, the search resumes from it.
+	 * @param initial the initial state
+	 * @return a shortest solution, or empty
+	 * @throws SearchAbortedException if the search exceeds its limits
+	 * @throws UncheckedIOException if reading or writing a checkpoint fails
+	 */
+	public Optional<Path> find(StateUnboxed initial) {
+		this.startNanos = System.nanoTime();
+		if (initial.isSolved())
+			return Optional.of(initial.path());
+		List<Layer> history = new ArrayList<>();
+		Layer layer;
+		if (checkpoint != null)
+			checkpoint.start(initial, stride, prepro.packedLongs());
+		if (checkpoint != null && checkpoint.exists())
+			layer = restore(history);
+		else {
+			Segment first = new Segment(stride, 1);
+			initial.copyAtoms(first.atoms, 0);
+			first.hashes[0] = initial.hash();
+			first.size = 1;
+			long[] initialKey = new long[prepro.packedLongs()];
+			long initialHash = initial.packCanonical(prepro, initialKey, 0);
+			closedSet.add(initial.totalBonds(), initialHash,
+					(dst, offset) -> System.arraycopy(initialKey, 0, dst, offset, initialKey.length));
+			layer = new Layer(Arrays.asList(first));
+		}
+
+		try {
+			Optional<Path> solution = search(history, layer);
+			if (checkpoint != null)
+				checkpoint.await();
+			return solution;
+		} catch (RuntimeException | Error ex) {
+			//let the last checkpoint land so we can resume from it
+			if (checkpoint != null)
+				try {
+					checkpoint.await();
+				} catch (RuntimeException suppressed) {
+					ex.addSuppressed(suppressed);
+				}
+			throw ex;
+		} finally {
+			if (snapshot != null)
+				snapshot.abandon();
+			snapshot = null;
+		}
+	}
+
+	private Optional<Path> search(List<Layer> history, Layer layer) {
+		for (int depth = history.size(); layer.size() > 0; ++depth) {
+			if (snapshot != null) {
+				snapshot.finish(depth, layers(history, layer));
+				snapshot = null;
+			}
+			if (checkpoint != null)
+				snapshot = checkpoint.begin(closedSet);
+			final Layer current = layer;
+			final int d = depth;
+			int tasks = (current.size() + TASK_SIZE - 1) / TASK_SIZE;
+			IntStream taskIndices = IntStream.range(0, tasks);
+			if (parallel) taskIndices = taskIndices.parallel();
+			List<Segment> next = new ArrayList<>(tasks);
+			taskIndices.mapToObj(t -> expand(current, t * TASK_SIZE,
+							Math.min(current.size(), (t + 1) * TASK_SIZE), d))
+					.filter(s -> s.size > 0)
+					.forEachOrdered(next::add);
+			for (Segment s : current.segments)
+				s.retire();
+			history.add(current);
+			if (solutionLink != -1)
+				return Optional.of(reconstruct(history, solutionLink));
+			layer = new Layer(next);
+			if (!next.isEmpty())
+				pruner.prune(next.stream().mapToInt(s -> s.minBonds).min().getAsInt());
+		}
+		return Optional.empty();
+	}
+
+	private Segment expand(Layer layer, int begin, int end, int depth) {
+		StateUnboxed.Successor successor = scratch.get();
+		Segment out = new Segment(stride, end - begin);
+		int segmentIndex = layer.segmentOf(begin);
+		Segment in = layer.segments.get(segmentIndex);
+		int[] atoms = new int[stride];
+		for (int i = begin; i < end && solutionLink == -1; ++i) {
+			while (i >= layer.starts[segmentIndex + 1])
+				in = layer.segments.get(++segmentIndex);
+			int index = i - layer.starts[segmentIndex];
+			System.arraycopy(in.atoms, index * stride, atoms, 0, stride);
+			long hash = in.hashes[index];
+			metrics.expanded(depth);
+			limits.checkCancelled();
+			//checking limits on a hash-selected sample keeps the clock reads
+			//off the common path
+			if ((hash & 0xFF) == 0)
+				limits.check(startNanos, closedSet.memoryBytes());
+			int parentBits = i << 2;
+			StateUnboxed.forEachSuccessor(atoms, hash, successor, c -> {
+				if (!c.isViable())
+					metrics.rejectedNotViable();
+				else if (!closedSet.add(c.totalBonds(), c.canonicalHash(), c.canonicalKey()))
+					metrics.rejectedDuplicate();
+				else {
+					metrics.accepted(depth + 1);
+					int link = parentBits | c.direction().ordinal();
+					if (c.isSolved())
+						solutionLink = link;
+					out.add(c, link);
+				}
+			});
+		}
+		return out.trim();
+	}
+
+	//writes the given layers in the format given in the class comment; the
+	//frontier's arrays are captured now, as it's retired once expanded
+	private Checkpoint.LayerWriter layers(List<Layer> history, Layer frontier) {
+		List<Layer> expanded = new ArrayList<>(history);
+		List<Segment> segments = new ArrayList<>(frontier.segments.size());
+		for (Segment s : frontier.segments)
+			segments.add(s.share());
+		return out -> {
+			out.writeInt(expanded.size());
+			for (Layer l : expanded) {
+				out.writeInt(l.segments.size());
+				for (Segment s : l.segments) {
+					out.writeInt(s.size);
+					for (int i = 0; i < s.size; ++i)
+						out.writeInt(s.links[i]);
+				}
+			}
+			out.writeInt(segments.size());
+			for (Segment s : segments) {
+				out.writeInt(s.size);
+				for (int i = 0; i < s.size * stride; ++i)
+					out.writeInt(s.atoms[i]);
+				for (int i = 0; i < s.size; ++i)
+					out.writeInt(s.links[i]);
+				for (int i = 0; i < s.size; ++i)
+					out.writeLong(s.hashes[i]);
+			}
+		};
+	}
+
+	//loads the checkpoint, filling in history and returning the frontier
+	private Layer restore(List<Layer> history) {
+		List<Segment> frontier = new ArrayList<>();
+		try {
+			checkpoint.restore(closedSet, in -> {
+				for (int layers = in.readInt(), l = 0; l < layers; ++l) {
+					List<Segment> segments = new ArrayList<>();
+					for (int count = in.readInt(), c = 0; c < count; ++c) {
+						int[] links = readInts(in, in.readInt());
+						segments.add(new Segment(stride, null, links, null, links.length));
+					}
+					history.add(new Layer(segments));
+				}
+				for (int count = in.readInt(), c = 0; c < count; ++c) {
+					int size = in.readInt();
+					int[] atoms = readInts(in, size * stride), links = readInts(in, size);
+					long[] hashes = new long[size];
+					for (int i = 0; i < size; ++i)
+						hashes[i] = in.readLong();
+					frontier.add(new Segment(stride, atoms, links, hashes, size));
+				}
+			});
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		//the checkpoint's closed set may lack some of the frontier's keys
+		int[] atoms = new int[stride];
+		long[] key = new long[prepro.packedLongs()];
+		for (Segment s : frontier)
+			for (int i = 0; i < s.size; ++i) {
+				System.arraycopy(s.atoms, i * stride, atoms, 0, stride);
+				long hash = StateUnboxed.packCanonical(atoms, s.hashes[i], prepro, key, 0);
+				closedSet.add(StateUnboxed.totalBonds(atoms), hash,
+						(dst, offset) -> System.arraycopy(key, 0, dst, offset, key.length));
+			}
+		return new Layer(frontier);
+	}
+
+	private static int[] readInts(DataInput in, int count) throws IOException {
+		int[] ints = new int[count];
+		for (int i = 0; i < count; ++i)
+			ints[i] = in.readInt();
+		return ints;
+	}
+
+	//follows links from the solved state back to the initial state
+	private static Path reconstruct(List<Layer> history, int solutionLink) {
+		SearchEvents.SolutionReconstruction event = new SearchEvents.SolutionReconstruction();
+		event.begin();
+		Direction[] directions = Direction.values(), moves = new Direction[history.size()];
+		int link = solutionLink;
+		for (int depth = history.size() - 1; ; --depth) {
+			moves[depth] = directions[link & 3];
+			if (depth == 0) break;
+			link = history.get(depth).link(link >>> 2);
+		}
+		Path path = ListPath.of(Arrays.asList(moves));
+		if (event.shouldCommit()) {
+			event.length = moves.length;
+			event.commit();
+		}
+		return path;
+	}
+}
@@ -0,0 +1,284 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent insert-only hash set of fixed-width packed states, stored
+ * inline in a long[] with linear probing.  Each slot has a state word that
+ * inserting threads claim by CAS; there are no per-entry objects, so a slot
+ * costs 8 bytes per key long plus 12 bytes.
+ * <p/>
+ * Callers supply each key's 64-bit hash (usually the state's incrementally
+ * maintained Zobrist hash) and a way to write the key.  Probing compares the
+ * stored hashes, so the key is only written out when claiming a slot or when
+ * the hashes match.
+ * <p/>
+ * When the table gets too full, one thread allocates a table twice the size
+ * and migrates every entry.  Empty slots are marked as moved so they can't be
+ * claimed, sending later insertions to the new table; insertions that claimed
+ * a slot before the migration reached it are migrated along with everything
+ * else.  Other threads keep inserting (into whichever table they reach)
+ * during the migration.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/4/2015
+ */
+public final class PackedStateSet {
+	private static final int EMPTY = 0, BUSY = 1, FULL = 2, MOVED = 3;
+	private static final int MIN_CAPACITY = 1 << 6, MAX_CAPACITY = 1 << 30;
+	//probe sequences longer than this trigger a load check
+	private static final int LONG_PROBE = 16;
+	private final int keyLongs;
+	private final LongAdder size = new LongAdder();
+	private final AtomicReference<Table> table;
+
+	/**
+	 * Creates a set of keys of the given width, presized to hold the given
+	 * number of keys without resizing.
+	 * @param keyLongs the number of longs per key
+	 * @param expectedSize the expected number of keys
+	 */
+	public PackedStateSet(int keyLongs, long expectedSize) {
+		if (keyLongs < 1)
+			throw new IllegalArgumentException("keyLongs must be positive: "+keyLongs);
+		this.keyLongs = keyLongs;
+		long capacity = MIN_CAPACITY;
+		while (capacity < MAX_CAPACITY && capacity * 3 / 4 < expectedSize)
+			capacity *= 2;
+		this.table = new AtomicReference<>(new Table((int)capacity));
+	}
+
+	/**
+	 * Writes a key into an array.
+	 */
+	@FunctionalInterface
+	public interface Key {
+		/**
+		 * Writes this key into keyLongs longs of dst, starting at offset.
+		 * @param dst the destination array
+		 * @param offset the index in dst of the first long to write
+		 */
+		public void writeTo(long[] dst, int offset);
+	}
+
+	private final class Table {
+		private final long[] hashes;
+		private final long[] keys;
+		private final AtomicIntegerArray states;
+		private final int mask;
+		private final AtomicReference<Table> next = new AtomicReference<>();
+		private volatile boolean migrated;
+		private Table(int capacity) {
+			if ((long)capacity * keyLongs > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("closed set too large: "+capacity+" slots of "+keyLongs+" longs");
+			this.hashes = new long[capacity];
+			this.keys = new long[capacity * keyLongs];
+			this.states = new AtomicIntegerArray(capacity);
+			this.mask = capacity - 1;
+		}
+		private int capacity() {
+			return mask + 1;
+		}
+		private Table awaitNext() {
+			Table n;
+			while ((n = next.get()) == null)
+				Thread.yield();
+			return n;
+		}
+	}
+
+	/**
+	 * Adds the given key to this set.  Equal keys must have equal hashes.
+	 * @param hash the key's hash
+	 * @param key writes the key, if needed
+	 * @return true if the key was not already present
+	 */
+	public boolean add(long hash, Key key) {
+		Table t = table.get();
+		//the key, once we've needed to compare it against a stored key
+		long[] scratch = null;
+		while (true) {
+			int probes = insert(t, hash, key, scratch);
+			if (probes > 0) {
+				size.increment();
+				if (probes > LONG_PROBE || (hash & 0x3FF) == 0)
+					maybeResize(t);
+				return true;
+			}
+			if (probes == PRESENT) return false;
+			if (probes == NEED_KEY) {
+				scratch = new long[keyLongs];
+				key.writeTo(scratch, 0);
+			} else
+				t = t.awaitNext();
+		}
+	}
+
+	private static final int PRESENT = 0, NEXT_TABLE = -1, NEED_KEY = -2;
+	//Returns the (positive) number of probes if inserted, PRESENT, NEXT_TABLE
+	//if the key must go in the next table, or NEED_KEY if a slot has the same
+	//hash and scratch is null.
+	private int insert(Table t, long hash, Key key, long[] scratch) {
+		int capacity = t.capacity();
+		int slot = (int)(hash ^ (hash >>> 32)) & t.mask;
+		for (int probes = 1; probes <= capacity; ++probes, slot = (slot + 1) & t.mask) {
+			int state = t.states.get(slot);
+			if (state == EMPTY) {
+				if (t.states.compareAndSet(slot, EMPTY, BUSY)) {
+					t.hashes[slot] = hash;
+					if (scratch != null)
+						System.arraycopy(scratch, 0, t.keys, slot * keyLongs, keyLongs);
+					else
+						key.writeTo(t.keys, slot * keyLongs);
+					t.states.set(slot, FULL);
+					return probes;
+				}
+				//lost the race; reread the slot
+				state = t.states.get(slot);
+			}
+			while (state == BUSY)
+				state = waitForWriter(t, slot);
+			if (state == MOVED) return NEXT_TABLE;
+			if (t.hashes[slot] == hash) {
+				if (scratch == null) return NEED_KEY;
+				if (keyEquals(t, slot, scratch)) return PRESENT;
+			}
+		}
+		//every slot was full and none matched
+		if (capacity >= MAX_CAPACITY)
+			throw new IllegalStateException("closed set full");
+		resize(t);
+		return NEXT_TABLE;
+	}
+
+	private static int waitForWriter(Table t, int slot) {
+		Thread.yield();
+		return t.states.get(slot);
+	}
+
+	private boolean keyEquals(Table t, int slot, long[] key) {
+		int base = slot * keyLongs;
+		for (int i = 0; i < keyLongs; ++i)
+			if (t.keys[base + i] != key[i])
+				return false;
+		return true;
+	}
+
+	private void maybeResize(Table t) {
+		if (size.sum() > t.capacity() / 4 * 3)
+			resize(t);
+	}
+
+	private void resize(Table t) {
+		if (t.next.get() != null || t.capacity() >= MAX_CAPACITY) return;
+		Table next = new Table(t.capacity() * 2);
+		if (!t.next.compareAndSet(null, next)) return;
+
+		long[] key = new long[keyLongs];
+		for (int slot = 0; slot < t.capacity(); ++slot) {
+			int state;
+			while ((state = t.states.get(slot)) != FULL)
+				if (state == EMPTY && t.states.compareAndSet(slot, EMPTY, MOVED))
+					break;
+				else if (state == BUSY)
+					Thread.yield();
+			if (state != FULL) continue;
+			System.arraycopy(t.keys, slot * keyLongs, key, 0, keyLongs);
+			long hash = t.hashes[slot];
+			//the key can't be present yet, but next may itself be migrating
+			for (Table dest = next; insert(dest, hash, null, key) == NEXT_TABLE;)
+				dest = dest.awaitNext();
+		}
+		t.migrated = true;
+		//migrations can finish out of order, so advance as far as possible
+		for (Table cur = table.get(); cur.migrated; cur = table.get())
+			table.compareAndSet(cur, cur.next.get());
+	}
+
+	/**
+	 * Tests a key in place.
+	 */
+	@FunctionalInterface
+	public interface KeyPredicate {
+		/**
+		 * Tests the key occupying keyLongs longs of keys, starting at offset.
+		 * @param keys the array containing the key
+		 * @param offset the index of the key's first long
+		 * @return the result of the test
+		 */
+		public boolean test(long[] keys, int offset);
+	}
+
+	/**
+	 * Removes all keys matching the given predicate by rebuilding the table.
+	 * This method must not be called concurrently with add().
+	 * @param predicate selects the keys to remove
+	 */
+	public void removeIf(KeyPredicate predicate) {
+		Table t = table.get();
+		assert t.next.get() == null : "removeIf during migration";
+		Table rebuilt = new Table(t.capacity());
+		long[] key = new long[keyLongs];
+		long removed = 0;
+		for (int slot = 0; slot < t.capacity(); ++slot) {
+			if (t.states.get(slot) != FULL) continue;
+			if (predicate.test(t.keys, slot * keyLongs)) {
+				++removed;
+				continue;
+			}
+			System.arraycopy(t.keys, slot * keyLongs, key, 0, keyLongs);
+			insert(rebuilt, t.hashes[slot], null, key);
+		}
+		table.set(rebuilt);
+		size.add(-removed);
+	}
+
+	/**
+	 * Visits a key in place.
+	 */
+	@FunctionalInterface
+	public interface KeyVisitor {
+		/**
+		 * Visits the key with the given hash occupying keyLongs longs of keys,
+		 * starting at offset.
+		 * @param hash the key's hash
+		 * @param keys the array containing the key
+		 * @param offset the index of the key's first long
+		 */
+		public void visit(long hash, long[] keys, int offset);
+	}
+
+	/**
+	 * Visits every key in this set.  This method may be called concurrently
+	 * with add(): if no add() was in progress when it was called, every key
+	 * added before the call is visited, and keys added concurrently may or may
+	 * not be.  It must not be called concurrently with removeIf().
+	 * @param visitor the visitor
+	 */
+	public void forEach(KeyVisitor visitor) {
+		//a concurrent migration copies entries forward, leaving them in place
+		Table t = table.get();
+		for (int slot = 0; slot < t.capacity(); ++slot)
+			if (t.states.get(slot) == FULL)
+				visitor.visit(t.hashes[slot], t.keys, slot * keyLongs);
+	}
+
+	/**
+	 * Returns the number of keys in this set.  Concurrent insertions may or
+	 * may not be reflected.
+	 * @return the number of keys in this set
+	 */
+	public long size() {
+		return size.sum();
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by this set's table.
+	 * @return the approximate memory footprint
+	 */
+	public long memoryBytes() {
+		long slots = table.get().capacity();
+		return slots * ((keyLongs + 1) * Long.BYTES + Integer.BYTES);
+	}
+}
@@ -0,0 +1,143 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Iterative-deepening A* whose depth-first iterations run on a fork/join pool.
+ * Subtrees with at least SPLIT_BUDGET moves of bound remaining are forked, one
+ * task per child, and idle workers steal them; smaller subtrees are searched
+ * sequentially by the worker that reached them.  All workers share one
+ * transposition table (see TranspositionTable on concurrent use), so bounds
+ * learned in one subtree prune transpositions in others.
+ * <p/>
+ * Memory use is the table plus the workers' stacks and pending tasks, which
+ * is proportional to the depth of the search rather than the size of a BFS
+ * layer.  Once any worker finds a solution, the others abandon their
+ * subtrees.  As with IDAStar, the solution is optimal if the heuristic is
+ * admissible: any solution found within bound is exactly bound moves long.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/24/2015
+ */
+public final class ParallelIDAStar {
+	private static final int INFINITY = Integer.MAX_VALUE;
+	//subtrees with fewer moves of bound left are searched sequentially
+	private static final int SPLIT_BUDGET = 6;
+	//recursion depth is the bound, so stop well short of overflowing stacks
+	private static final int MAX_BOUND = 1 << 10;
+	private final StateUnboxed.PreprocessedPuzzle prepro;
+	private final Heuristic heuristic;
+	private final TranspositionTable table;
+	private final ForkJoinPool pool;
+	private final SearchMetrics metrics;
+	private final SearchLimits limits;
+	private final AtomicReference<StateUnboxed> solution = new AtomicReference<>();
+	private volatile int bound;
+	private long startNanos;
+	public ParallelIDAStar(StateUnboxed.PreprocessedPuzzle prepro, Heuristic heuristic, TranspositionTable table,
+			ForkJoinPool pool, SearchMetrics metrics, SearchLimits limits) {
+		this.prepro = prepro;
+		this.heuristic = heuristic;
+		this.table = table;
+		this.pool = pool;
+		this.metrics = metrics;
+		this.limits = limits;
+	}
+
+	/**
+	 * Searches from the given initial state, returning a solved state, or
+	 * empty if no solved state is reachable.  The metrics' depth is the
+	 * current iteration's bound.
+	 * @param initial the initial state
+	 * @return a solved state, or empty
+	 * @throws SearchAbortedException if the search exceeds its limits, or
+	 * with DEPTH_LIMIT if the bound exceeds MAX_BOUND moves (IDA* can't prove
+	 * cyclic state spaces unsolvable, so this is the usual result on
+	 * unsolvable puzzles without a time limit)
+	 */
+	public Optional<StateUnboxed> find(StateUnboxed initial) {
+		this.startNanos = System.nanoTime();
+		solution.set(null);
+		bound = 0;
+		while (true) {
+			int next = pool.invoke(new Subtree(initial, 0));
+			if (solution.get() != null)
+				return Optional.of(solution.get());
+			if (next == INFINITY)
+				return Optional.empty();
+			if (next > MAX_BOUND)
+				throw new SearchAbortedException(SearchAbortedException.Reason.DEPTH_LIMIT);
+			bound = next;
+		}
+	}
+
+	private final class Subtree extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private final StateUnboxed state;
+		private final int g;
+		private Subtree(StateUnboxed state, int g) {
+			this.state = state;
+			this.g = g;
+		}
+		@Override
+		protected Integer compute() {
+			return search(state, g);
+		}
+	}
+
+	//returns the smallest f exceeding the bound in this subtree (INFINITY if
+	//none), or -1 if a solution was found (here or elsewhere)
+	private int search(StateUnboxed state, int g) {
+		if (solution.get() != null) return -1;
+		int bound = this.bound;
+		int h = heuristic.estimate(state, prepro);
+		if (h == Heuristic.DEAD_END) return INFINITY;
+		long fingerprint = state.hash();
+		h = Math.max(h, table.lowerBound(fingerprint));
+		if (h == INFINITY) return INFINITY;
+		if (g + h > bound) return g + h;
+		if (state.isSolved()) {
+			solution.compareAndSet(null, state);
+			return -1;
+		}
+
+		metrics.expanded(bound);
+		limits.checkCancelled();
+		//checking limits on a hash-selected sample keeps the clock reads
+		//off the common path
+		if ((fingerprint & 0xFF) == 0)
+			limits.check(startNanos, table.memoryBytes());
+		List<StateUnboxed> children = new ArrayList<>(4);
+		state.nextStates(prepro).forEachOrdered(next -> {
+			if (next.isViable(prepro))
+				children.add(next);
+			else
+				metrics.rejectedNotViable();
+		});
+
+		int min = INFINITY;
+		if (bound - g >= SPLIT_BUDGET && children.size() > 1) {
+			List<Subtree> tasks = new ArrayList<>(children.size());
+			for (StateUnboxed child : children)
+				tasks.add(new Subtree(child, g + 1));
+			for (Subtree t : ForkJoinTask.invokeAll(tasks)) {
+				int f = t.join();
+				if (f == -1) return -1;
+				min = Math.min(min, f);
+			}
+		} else {
+			for (StateUnboxed child : children) {
+				int f = search(child, g + 1);
+				if (f == -1) return -1;
+				min = Math.min(min, f);
+			}
+		}
+		table.store(fingerprint, min == INFINITY ? INFINITY : min - g, bound - g);
+		return min;
+	}
+}
@@ -0,0 +1,15 @@
+package com.jeffreybosboom.sokobondbot;
+
+/**
+ * Receives a search's progress as each depth layer completes (each iteration,
+ * for iterative-deepening searches, whose depth is the iteration's bound).
+ * Listeners are called on a search thread while other search threads keep
+ * running, so they should return quickly; an exception thrown by a listener
+ * abandons the search.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/26/2015
+ */
+@FunctionalInterface
+public interface ProgressListener {
+	public void layerComplete(SearchProgress progress);
+}
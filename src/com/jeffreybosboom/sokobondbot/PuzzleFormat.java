@@ -0,0 +1,251 @@
+package com.jeffreybosboom.sokobondbot;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes puzzles in a compact text format, so puzzles can be cached
+ * and solved without screenshots.  A puzzle is a grid, one line per row:
+ * <pre>
+ * #######
+ * #h..O.#
+ * #...H.#
+ * #######
+ * bonds
+ * 1 4 2 4
+ * </pre>
+ * '#' is a boundary cell and '.' an empty cell; spaces and cells past the
+ * end of a line are outside the grid.  Every cell the atoms can reach must be
+ * enclosed by boundary cells.  Atoms are H (hydrogen), O (oxygen),
+ * N (nitrogen), C (carbon) or E (helium); the single lowercase atom is the
+ * player's.  The optional bonds section lists one bond per line
+ * as the row and column of both atoms; double bonds are listed twice.  Blank
+ * lines and lines starting with ';' are ignored.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/15/2015
+ */
+public final class PuzzleFormat {
+	private PuzzleFormat() {}
+
+	private static final String BONDS_HEADER = "bonds";
+	//Coordinate's instance cache bounds what we can represent
+	private static final int MAX_COORDINATE = 10;
+	private static final int[][] STEPS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+
+	public static Puzzle parse(String text) {
+		try {
+			return parse(new StringReader(text));
+		} catch (IOException ex) {
+			throw new AssertionError("StringReader can't throw", ex);
+		}
+	}
+
+	public static Puzzle read(File file) throws IOException {
+		try (Reader r = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			return parse(r);
+		}
+	}
+
+	/**
+	 * Parses a puzzle.
+	 * @param reader the puzzle text
+	 * @return the puzzle
+	 * @throws IOException if reading fails
+	 * @throws IllegalArgumentException if the text is malformed
+	 */
+	public static Puzzle parse(Reader reader) throws IOException {
+		BufferedReader r = reader instanceof BufferedReader ? (BufferedReader)reader : new BufferedReader(reader);
+		Set<Coordinate> boundary = new HashSet<>();
+		Map<Coordinate, Element> atoms = new HashMap<>();
+		Multiset<Pair<Coordinate, Coordinate>> bonds = HashMultiset.create();
+		List<String> grid = new ArrayList<>();
+		Coordinate player = null;
+		boolean inBonds = false;
+		int row = 0, lineNumber = 0;
+		for (String line; (line = r.readLine()) != null;) {
+			++lineNumber;
+			//leading spaces are cells outside the grid, so only trim the end
+			line = trimTrailing(line);
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.charAt(0) == ';') continue;
+			if (trimmed.equals(BONDS_HEADER)) {
+				inBonds = true;
+				continue;
+			}
+
+			if (inBonds) {
+				String[] fields = trimmed.split("\\s+");
+				if (fields.length != 4)
+					throw new IllegalArgumentException(lineNumber+": expected 'row col row col': "+line);
+				Coordinate a = coordinate(fields[0], fields[1], lineNumber),
+						b = coordinate(fields[2], fields[3], lineNumber);
+				if (!atoms.containsKey(a) || !atoms.containsKey(b))
+					throw new IllegalArgumentException(lineNumber+": bond endpoint isn't an atom: "+line);
+				//not a.neighbors(), which can step off Coordinate's cache
+				if (Math.abs(a.row() - b.row()) + Math.abs(a.col() - b.col()) != 1)
+					throw new IllegalArgumentException(lineNumber+": bonded atoms aren't adjacent: "+line);
+				bonds.add(Pair.sorted(a, b));
+				continue;
+			}
+
+			if (row > MAX_COORDINATE || line.length() > MAX_COORDINATE + 1)
+				throw new IllegalArgumentException(lineNumber+": grid larger than "+(MAX_COORDINATE+1)+" square");
+			for (int col = 0; col < line.length(); ++col) {
+				char c = line.charAt(col);
+				Coordinate coordinate = Coordinate.at(row, col);
+				if (c == '#')
+					boundary.add(coordinate);
+				else if (c != '.' && c != ' ') {
+					Element element = element(Character.toUpperCase(c));
+					if (element == null)
+						throw new IllegalArgumentException(lineNumber+": unknown cell '"+c+"'");
+					atoms.put(coordinate, element);
+					if (Character.isLowerCase(c)) {
+						if (player != null)
+							throw new IllegalArgumentException(lineNumber+": more than one player atom");
+						player = coordinate;
+					}
+				}
+			}
+			grid.add(line);
+			++row;
+		}
+		if (player == null)
+			throw new IllegalArgumentException("no player atom");
+		checkEnclosed(grid, atoms.keySet());
+
+		for (Coordinate a : atoms.keySet()) {
+			int bondCount = 0;
+			for (Pair<Coordinate, Coordinate> p : bonds.elementSet())
+				if (p.first.equals(a) || p.second.equals(a))
+					bondCount += bonds.count(p);
+			if (bondCount > atoms.get(a).maxElectrons())
+				throw new IllegalArgumentException(a+" has more bonds than electrons");
+		}
+		return new Puzzle(boundary, atoms, bonds, player);
+	}
+
+	/**
+	 * Checks that every cell reachable from an atom is enclosed by boundary
+	 * cells, so searches never step off the grid.  Open cells outside the
+	 * walls are allowed as long as no atom can reach them (Sensor doesn't
+	 * mark the area around the playfield as boundary).
+	 * @param grid the grid's lines
+	 * @param atoms the atoms' coordinates
+	 * @throws IllegalArgumentException if a reachable cell is on the grid's
+	 * edge or next to a cell outside the grid
+	 */
+	private static void checkEnclosed(List<String> grid, Set<Coordinate> atoms) {
+		boolean[] seen = new boolean[256];
+		Deque<Integer> frontier = new ArrayDeque<>();
+		for (Coordinate a : atoms)
+			frontier.push(a.row() << 4 | a.col());
+		while (!frontier.isEmpty()) {
+			int cell = frontier.pop();
+			if (seen[cell]) continue;
+			seen[cell] = true;
+			int row = cell >> 4, col = cell & 0xF;
+			for (int[] step : STEPS) {
+				int r = row + step[0], c = col + step[1];
+				char ch = r < 0 || r >= grid.size() || c < 0 || c >= grid.get(r).length() ?
+						' ' : grid.get(r).charAt(c);
+				if (ch == ' ')
+					throw new IllegalArgumentException("cell "+row+" "+col+" isn't enclosed by '#'");
+				if (ch != '#')
+					frontier.push(r << 4 | c);
+			}
+		}
+	}
+
+	private static String trimTrailing(String line) {
+		int end = line.length();
+		while (end > 0 && Character.isWhitespace(line.charAt(end - 1)))
+			--end;
+		return line.substring(0, end);
+	}
+
+	private static Coordinate coordinate(String row, String col, int lineNumber) {
+		try {
+			int r = Integer.parseInt(row), c = Integer.parseInt(col);
+			if (r < 0 || r > MAX_COORDINATE || c < 0 || c > MAX_COORDINATE)
+				throw new IllegalArgumentException(lineNumber+": coordinate out of range: "+row+" "+col);
+			return Coordinate.at(r, c);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(lineNumber+": bad coordinate: "+row+" "+col, ex);
+		}
+	}
+
+	public static String format(Puzzle puzzle) {
+		int rows = 0, cols = 0;
+		for (Coordinate c : puzzle.boundary()) {
+			rows = Math.max(rows, c.row() + 1);
+			cols = Math.max(cols, c.col() + 1);
+		}
+		for (Coordinate c : puzzle.atoms().keySet()) {
+			rows = Math.max(rows, c.row() + 1);
+			cols = Math.max(cols, c.col() + 1);
+		}
+
+		StringBuilder sb = new StringBuilder((cols + 1) * rows + 16 * puzzle.bonds().size());
+		for (int r = 0; r < rows; ++r) {
+			for (int c = 0; c < cols; ++c) {
+				Coordinate coordinate = Coordinate.at(r, c);
+				Element element = puzzle.atoms().get(coordinate);
+				if (element != null) {
+					char ch = letter(element);
+					sb.append(coordinate.equals(puzzle.playerAtom()) ? Character.toLowerCase(ch) : ch);
+				} else
+					sb.append(puzzle.boundary().contains(coordinate) ? '#' : '.');
+			}
+			sb.append('\n');
+		}
+		if (!puzzle.bonds().isEmpty()) {
+			sb.append(BONDS_HEADER).append('\n');
+			for (Pair<Coordinate, Coordinate> p : puzzle.bonds())
+				sb.append(p.first.row()).append(' ').append(p.first.col()).append(' ')
+						.append(p.second.row()).append(' ').append(p.second.col()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public static void write(Puzzle puzzle, File file) throws IOException {
+		Files.write(file.toPath(), format(puzzle).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Element element(char letter) {
+		switch (letter) {
+			case 'E': return Element.HELIUM;
+			case 'H': return Element.HYDROGEN;
+			case 'O': return Element.OXYGEN;
+			case 'N': return Element.NITROGEN;
+			case 'C': return Element.CARBON;
+			default: return null;
+		}
+	}
+
+	private static char letter(Element element) {
+		switch (element) {
+			case HELIUM: return 'E';
+			case HYDROGEN: return 'H';
+			case OXYGEN: return 'O';
+			case NITROGEN: return 'N';
+			case CARBON: return 'C';
+		}
+		throw new AssertionError(element);
+	}
+}
@@ -0,0 +1,38 @@
+package com.jeffreybosboom.sokobondbot;
+
+/**
+ * Thrown when a search is abandoned before finding a solution or proving
+ * there isn't one.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/16/2015
+ */
+public final class SearchAbortedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	public enum Reason {
+		TIME_LIMIT, MEMORY_LIMIT, CANCELLED,
+		//a depth-first search gave up at its bound without proving anything
+		DEPTH_LIMIT
+	}
+	private final Reason reason;
+	public SearchAbortedException(Reason reason) {
+		super(reason.toString(), null, false, false);
+		this.reason = reason;
+	}
+	public Reason reason() {
+		return reason;
+	}
+
+	/**
+	 * Returns the SearchAbortedException in the given throwable's cause chain,
+	 * or null if there isn't one.  Parallel searches may wrap the exception
+	 * thrown in a worker thread.
+	 * @param t a throwable
+	 * @return the SearchAbortedException, or null
+	 */
+	public static SearchAbortedException find(Throwable t) {
+		for (; t != null; t = t.getCause())
+			if (t instanceof SearchAbortedException)
+				return (SearchAbortedException)t;
+		return null;
+	}
+}
@@ -0,0 +1,96 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.io.File;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A search algorithm run by Solver.solve(SearchEngine, SearchLimits).
+ * Engines call metrics.start() (with their closed set, if they have one)
+ * before searching, report progress through the metrics and honor the limits.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/24/2015
+ */
+@FunctionalInterface
+public interface SearchEngine {
+	/**
+	 * Searches for a solution from the given initial state.
+	 * @param prepro the preprocessed puzzle
+	 * @param initial the initial state
+	 * @param metrics the metrics to report to
+	 * @param limits the search's time and memory budgets
+	 * @return a solution, or empty if the puzzle has none
+	 * @throws SearchAbortedException if the search exceeds its limits
+	 */
+	public Optional<Path> find(StateUnboxed.PreprocessedPuzzle prepro, StateUnboxed initial,
+			SearchMetrics metrics, SearchLimits limits);
+
+	/**
+	 * Layer-synchronous breadth-first search (PackedBFS) with a closed set
+	 * layered by total bonds.  Finds shortest solutions; memory grows with the
+	 * largest layer.  Parallel layers run in the calling task's fork/join pool
+	 * if called from one, else in the common pool.
+	 * @param parallel whether to expand each layer in parallel
+	 * @return a breadth-first engine
+	 */
+	public static SearchEngine breadthFirst(boolean parallel) {
+		return breadthFirst(parallel, null);
+	}
+
+	/**
+	 * Breadth-first search as by breadthFirst(boolean), periodically
+	 * checkpointing to the given checkpoint and resuming from it if its file
+	 * exists.  As a checkpoint is for one puzzle, so is the returned engine.
+	 * @param parallel whether to expand each layer in parallel
+	 * @param checkpoint the checkpoint, or null
+	 * @return a breadth-first engine
+	 */
+	public static SearchEngine breadthFirst(boolean parallel, Checkpoint checkpoint) {
+		return (prepro, initial, metrics, limits) -> {
+			LayeredStateSet closedSet = new LayeredStateSet(prepro.packedLongs(), StateUnboxed.BOND_LAYERS, 1 << 12);
+			metrics.start(closedSet);
+			return new PackedBFS(prepro, closedSet, metrics, limits, parallel, checkpoint).find(initial);
+		};
+	}
+
+	/**
+	 * Breadth-first search with the closed set and frontier on disk and
+	 * delayed duplicate detection (ExternalBFS).  Finds shortest solutions;
+	 * heap use is fixed by the buffer size, so it can search state spaces
+	 * far larger than the heap, limited by disk space and bandwidth instead.
+	 * @param directory the directory for the search's temporary files
+	 * @param bufferBytes the memory for buffering successors between sorts
+	 * @param parallel whether to sort the buffer in parallel
+	 * @return an external-memory breadth-first engine
+	 */
+	public static SearchEngine externalBreadthFirst(File directory, long bufferBytes, boolean parallel) {
+		return (prepro, initial, metrics, limits) -> {
+			metrics.start(null);
+			return new ExternalBFS(prepro, directory, ExternalBFS.bufferStates(prepro, bufferBytes),
+					metrics, limits, parallel).find(initial);
+		};
+	}
+
+	/**
+	 * Iterative-deepening A* on a fork/join pool (ParallelIDAStar), sharing a
+	 * transposition table of 2^log2TableEntries entries.  Runs in the calling
+	 * task's pool if called from one (as by SolverService), else in the common
+	 * pool.  Finds shortest solutions if the heuristic is admissible; memory
+	 * is fixed by the table size.  Gives up with DEPTH_LIMIT rather than
+	 * returning empty once its bound passes 1024 moves, as IDA* can't prove
+	 * cyclic state spaces unsolvable.
+	 * @param heuristic an admissible heuristic
+	 * @param log2TableEntries log2 of the transposition table size
+	 * @return a parallel depth-first engine
+	 */
+	public static SearchEngine parallelIDAStar(Heuristic heuristic, int log2TableEntries) {
+		return (prepro, initial, metrics, limits) -> {
+			TranspositionTable table = new TranspositionTable(log2TableEntries);
+			metrics.start(null);
+			ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+			return new ParallelIDAStar(prepro, heuristic, table, pool, metrics, limits)
+					.find(initial).map(StateUnboxed::path);
+		};
+	}
+}
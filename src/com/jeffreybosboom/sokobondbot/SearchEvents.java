@@ -0,0 +1,102 @@
+package com.jeffreybosboom.sokobondbot;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the solver's phases.  Callers follow the
+ * usual pattern (begin(), work, then set fields and commit() only if
+ * shouldCommit()), so when recording is off an event costs an allocation that
+ * escape analysis removes and a disabled-check.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/19/2015
+ */
+final class SearchEvents {
+	private SearchEvents() {}
+
+	private static final String CATEGORY = "Sokobondbot";
+
+	@Name("com.jeffreybosboom.sokobondbot.Preprocess")
+	@Label("Preprocess Puzzle")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class Preprocess extends Event {
+		@Label("Atoms")
+		int atoms;
+		@Label("Playfield Cells")
+		int cells;
+		@Label("Board Symmetries")
+		int symmetries;
+	}
+
+	@Name("com.jeffreybosboom.sokobondbot.ForbiddenBonds")
+	@Label("Compute Forbidden Bonds")
+	@Description("Geometry-free search for bonds that can't appear in any solution")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class ForbiddenBonds extends Event {
+		@Label("Atoms")
+		int atoms;
+		@Label("Forbidden Bonds")
+		int forbiddenBonds;
+	}
+
+	@Name("com.jeffreybosboom.sokobondbot.LayerComplete")
+	@Label("Search Layer Complete")
+	@Description("All states at a depth have been expanded; the duration covers the layer")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class LayerComplete extends Event {
+		@Label("Depth")
+		int depth;
+		@Label("States in Layer")
+		long layerSize;
+		@Label("Closed Set Size")
+		long closedSetSize;
+	}
+
+	@Name("com.jeffreybosboom.sokobondbot.ClosedSetPrune")
+	@Label("Closed Set Prune")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class ClosedSetPrune extends Event {
+		@Label("Minimum Bonds")
+		int minBonds;
+		@Label("Size Before")
+		long sizeBefore;
+		@Label("Size After")
+		long sizeAfter;
+		@Label("Table Size")
+		@DataAmount
+		long memoryBytes;
+	}
+
+	@Name("com.jeffreybosboom.sokobondbot.Checkpoint")
+	@Label("Search Checkpoint")
+	@Description("Writing a checkpoint file, concurrently with expansion; the duration covers the whole write")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class Checkpoint extends Event {
+		@Label("Depth")
+		int depth;
+		@Label("Closed Set Keys")
+		long closedSetKeys;
+		@Label("File Size")
+		@DataAmount
+		long fileBytes;
+	}
+
+	@Name("com.jeffreybosboom.sokobondbot.SolutionReconstruction")
+	@Label("Solution Reconstruction")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class SolutionReconstruction extends Event {
+		@Label("Solution Length")
+		int length;
+	}
+}
@@ -0,0 +1,86 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Time and memory budgets for a single search.  Searches call check()
+ * periodically and abandon the search when it throws.  The memory budget
+ * covers the search's own closed set, the dominant per-search allocation;
+ * the JVM heap is shared between concurrent searches and can't be charged to
+ * any one of them.  A search can also be cancelled from outside through a
+ * cancellation flag, which checkCancelled() and check() poll.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/16/2015
+ */
+public final class SearchLimits {
+	private static final SearchLimits NONE = new SearchLimits(Long.MAX_VALUE, Long.MAX_VALUE, null);
+	private final long timeLimitNanos, memoryLimitBytes;
+	//null if the search can't be cancelled
+	private final BooleanSupplier cancelled;
+	private SearchLimits(long timeLimitNanos, long memoryLimitBytes, BooleanSupplier cancelled) {
+		if (timeLimitNanos <= 0 || memoryLimitBytes <= 0)
+			throw new IllegalArgumentException("limits must be positive: "+timeLimitNanos+" "+memoryLimitBytes);
+		this.timeLimitNanos = timeLimitNanos;
+		this.memoryLimitBytes = memoryLimitBytes;
+		this.cancelled = cancelled;
+	}
+
+	public static SearchLimits none() {
+		return NONE;
+	}
+
+	public static SearchLimits of(long timeLimit, TimeUnit unit, long memoryLimitBytes) {
+		return new SearchLimits(unit.toNanos(timeLimit), memoryLimitBytes, null);
+	}
+
+	public SearchLimits withTimeLimit(long timeLimit, TimeUnit unit) {
+		return new SearchLimits(unit.toNanos(timeLimit), memoryLimitBytes, cancelled);
+	}
+
+	public SearchLimits withMemoryLimit(long memoryLimitBytes) {
+		return new SearchLimits(timeLimitNanos, memoryLimitBytes, cancelled);
+	}
+
+	/**
+	 * Returns limits that also abandon the search once the given flag becomes
+	 * true.  The flag is polled from search threads, so it must be cheap and
+	 * thread-safe.
+	 * @param cancelled returns true once the search should be cancelled
+	 * @return the new limits
+	 */
+	public SearchLimits withCancellation(BooleanSupplier cancelled) {
+		return new SearchLimits(timeLimitNanos, memoryLimitBytes, cancelled);
+	}
+
+	/**
+	 * Throws if the search has been cancelled.  Cheap enough for searches to
+	 * call on every expansion.
+	 * @throws SearchAbortedException if the search has been cancelled
+	 */
+	public void checkCancelled() {
+		if (cancelled != null && cancelled.getAsBoolean())
+			throw new SearchAbortedException(SearchAbortedException.Reason.CANCELLED);
+	}
+
+	/**
+	 * Throws if the search has been cancelled or has exceeded either budget.
+	 * @param startNanos the System.nanoTime() when the search began
+	 * @param memoryBytes the search's current memory footprint
+	 * @throws SearchAbortedException if the search should be abandoned
+	 */
+	public void check(long startNanos, long memoryBytes) {
+		checkCancelled();
+		if (memoryBytes > memoryLimitBytes)
+			throw new SearchAbortedException(SearchAbortedException.Reason.MEMORY_LIMIT);
+		if (timeLimitNanos != Long.MAX_VALUE && System.nanoTime() - startNanos > timeLimitNanos)
+			throw new SearchAbortedException(SearchAbortedException.Reason.TIME_LIMIT);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SearchLimits(%s ms, %s bytes)",
+				timeLimitNanos == Long.MAX_VALUE ? "unlimited" : TimeUnit.NANOSECONDS.toMillis(timeLimitNanos),
+				memoryLimitBytes == Long.MAX_VALUE ? "unlimited" : memoryLimitBytes);
+	}
+}
@@ -0,0 +1,260 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live counters for a running search, readable from any thread (and over JMX
+ * once registered) while the search runs.  Counters are LongAdders, which
+ * stripe updates across cells under contention, so search threads don't
+ * serialize on them.  An optional ProgressListener is told as each depth
+ * layer completes.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/18/2015
+ */
+public final class SearchMetrics implements SearchMetricsMXBean {
+	private static final String DOMAIN = "com.jeffreybosboom.sokobondbot";
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+	//deeper states are counted in the last bucket
+	private static final int MAX_TRACKED_DEPTH = 1024;
+	private final LongAdder generated = new LongAdder(), expanded = new LongAdder(),
+			notViable = new LongAdder(), duplicate = new LongAdder(),
+			prunerReclaims = new LongAdder(), prunerReclaimed = new LongAdder();
+	private final AtomicReferenceArray<LongAdder> frontier = new AtomicReferenceArray<>(MAX_TRACKED_DEPTH);
+	private final AtomicInteger depth = new AtomicInteger(), maxFrontierDepth = new AtomicInteger(-1);
+	private volatile long startNanos, endNanos;
+	private volatile boolean running;
+	private volatile LayeredStateSet closedSet;
+	private volatile long closedSetSize, closedSetBytes;
+	//begun when the current layer's first state was expanded
+	private volatile SearchEvents.LayerComplete layerEvent;
+	private volatile long layerStartNanos;
+	private final ProgressListener listener;
+	private ObjectName name;
+	public SearchMetrics() {
+		this(null);
+	}
+	/**
+	 * Creates metrics that report each completed layer to the given listener.
+	 * @param listener the listener, or null
+	 */
+	public SearchMetrics(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Marks the search as started, with the given closed set (which may be
+	 * null if the search doesn't have one).
+	 * @param closedSet the search's closed set, or null
+	 */
+	public void start(LayeredStateSet closedSet) {
+		this.closedSet = closedSet;
+		this.startNanos = System.nanoTime();
+		this.layerStartNanos = startNanos;
+		this.layerEvent = new SearchEvents.LayerComplete();
+		layerEvent.begin();
+		this.running = true;
+	}
+
+	/**
+	 * Marks the search as finished, snapshotting the closed set's size and
+	 * dropping the reference to it.
+	 */
+	public void finish() {
+		this.endNanos = System.nanoTime();
+		LayeredStateSet set = closedSet;
+		if (set != null) {
+			closedSetSize = set.size();
+			closedSetBytes = set.memoryBytes();
+		}
+		this.closedSet = null;
+		this.running = false;
+	}
+
+	public void expanded(int d) {
+		expanded.increment();
+		for (int current; d > (current = depth.get());)
+			if (depth.compareAndSet(current, d)) {
+				//breadth-first, so the first state at a new depth completes
+				//the previous layer
+				layerComplete(current);
+				break;
+			}
+	}
+
+	private void layerComplete(int completedDepth) {
+		SearchEvents.LayerComplete event = layerEvent, next = new SearchEvents.LayerComplete();
+		next.begin();
+		layerEvent = next;
+		event.end();
+		long layerSize = completedDepth == 0 ? 1 : frontierSize(completedDepth);
+		if (event.shouldCommit()) {
+			event.depth = completedDepth;
+			event.layerSize = layerSize;
+			event.closedSetSize = getClosedSetSize();
+			event.commit();
+		}
+		long now = System.nanoTime(), layerStart = layerStartNanos;
+		layerStartNanos = now;
+		if (listener != null)
+			listener.layerComplete(new SearchProgress(completedDepth, layerSize,
+					TimeUnit.NANOSECONDS.toMillis(now - layerStart), TimeUnit.NANOSECONDS.toMillis(now - startNanos),
+					getStatesExpanded(), getStatesGenerated(), getClosedSetSize()));
+	}
+
+	private long frontierSize(int depth) {
+		LongAdder counter = frontier.get(Math.min(depth, MAX_TRACKED_DEPTH - 1));
+		return counter == null ? 0 : counter.sum();
+	}
+
+	public void rejectedNotViable() {
+		generated.increment();
+		notViable.increment();
+	}
+
+	public void rejectedDuplicate() {
+		generated.increment();
+		duplicate.increment();
+	}
+
+	public void accepted(int depth) {
+		generated.increment();
+		int bucket = Math.min(depth, MAX_TRACKED_DEPTH - 1);
+		LongAdder counter = frontier.get(bucket);
+		if (counter == null) {
+			frontier.compareAndSet(bucket, null, new LongAdder());
+			counter = frontier.get(bucket);
+			if (bucket > maxFrontierDepth.get())
+				maxFrontierDepth.accumulateAndGet(bucket, Math::max);
+		}
+		counter.increment();
+	}
+
+	public void prunerReclaimed(long states) {
+		prunerReclaims.increment();
+		prunerReclaimed.add(states);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under a name
+	 * unique to this search.
+	 */
+	public synchronized void register() {
+		if (name != null) return;
+		try {
+			ObjectName n = new ObjectName(DOMAIN+":type=SearchMetrics,id="+NEXT_ID.getAndIncrement());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+			name = n;
+		} catch (JMException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public synchronized void unregister() {
+		if (name == null) return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(name);
+		} catch (JMException ex) {
+			throw new RuntimeException(ex);
+		} finally {
+			name = null;
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		long start = startNanos;
+		if (start == 0) return 0;
+		long end = running ? System.nanoTime() : endNanos;
+		return TimeUnit.NANOSECONDS.toMillis(end - start);
+	}
+
+	@Override
+	public long getStatesGenerated() {
+		return generated.sum();
+	}
+
+	@Override
+	public long getStatesExpanded() {
+		return expanded.sum();
+	}
+
+	@Override
+	public double getStatesGeneratedPerSecond() {
+		return perSecond(getStatesGenerated());
+	}
+
+	@Override
+	public double getStatesExpandedPerSecond() {
+		return perSecond(getStatesExpanded());
+	}
+
+	private double perSecond(long count) {
+		long millis = getElapsedMillis();
+		return millis == 0 ? 0 : count * 1000.0 / millis;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth.get();
+	}
+
+	@Override
+	public long[] getFrontierSizes() {
+		long[] sizes = new long[maxFrontierDepth.get() + 1];
+		for (int i = 0; i < sizes.length; ++i)
+			sizes[i] = frontierSize(i);
+		return sizes;
+	}
+
+	@Override
+	public long getClosedSetSize() {
+		LayeredStateSet set = closedSet;
+		return set != null ? set.size() : closedSetSize;
+	}
+
+	@Override
+	public long getClosedSetBytes() {
+		LayeredStateSet set = closedSet;
+		return set != null ? set.memoryBytes() : closedSetBytes;
+	}
+
+	@Override
+	public long getRejectedNotViable() {
+		return notViable.sum();
+	}
+
+	@Override
+	public long getRejectedDuplicate() {
+		return duplicate.sum();
+	}
+
+	@Override
+	public long getPrunerReclaims() {
+		return prunerReclaims.sum();
+	}
+
+	@Override
+	public long getPrunerReclaimedStates() {
+		return prunerReclaimed.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d ms, %d expanded, %d generated (%d not viable, %d duplicate), depth %d, %d in closed set",
+				getElapsedMillis(), getStatesExpanded(), getStatesGenerated(),
+				getRejectedNotViable(), getRejectedDuplicate(), getDepth(), getClosedSetSize());
+	}
+}
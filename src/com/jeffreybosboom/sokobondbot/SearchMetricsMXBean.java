@@ -0,0 +1,34 @@
+package com.jeffreybosboom.sokobondbot;
+
+/**
+ * The JMX view of a search's SearchMetrics.  Rates are averages since the
+ * search began; monitoring tools can difference the counters for
+ * instantaneous rates.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/18/2015
+ */
+public interface SearchMetricsMXBean {
+	public boolean isRunning();
+	public long getElapsedMillis();
+	public long getStatesGenerated();
+	public long getStatesExpanded();
+	public double getStatesGeneratedPerSecond();
+	public double getStatesExpandedPerSecond();
+	/**
+	 * Returns the depth of the deepest state expanded so far, which for
+	 * breadth-first search is the current layer.
+	 * @return the current depth
+	 */
+	public int getDepth();
+	/**
+	 * Returns the number of new states found at each depth, indexed by depth.
+	 * @return the frontier sizes by depth
+	 */
+	public long[] getFrontierSizes();
+	public long getClosedSetSize();
+	public long getClosedSetBytes();
+	public long getRejectedNotViable();
+	public long getRejectedDuplicate();
+	public long getPrunerReclaims();
+	public long getPrunerReclaimedStates();
+}
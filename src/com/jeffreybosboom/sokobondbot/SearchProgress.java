@@ -0,0 +1,69 @@
+package com.jeffreybosboom.sokobondbot;
+
+/**
+ * A snapshot of a search's counters when a depth layer completed, passed to
+ * ProgressListener.  Counts are totals since the search began unless noted.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/26/2015
+ */
+public final class SearchProgress {
+	private final int depth;
+	private final long layerSize, layerMillis, elapsedMillis;
+	private final long statesExpanded, statesGenerated, closedSetSize;
+	SearchProgress(int depth, long layerSize, long layerMillis, long elapsedMillis,
+			long statesExpanded, long statesGenerated, long closedSetSize) {
+		this.depth = depth;
+		this.layerSize = layerSize;
+		this.layerMillis = layerMillis;
+		this.elapsedMillis = elapsedMillis;
+		this.statesExpanded = statesExpanded;
+		this.statesGenerated = statesGenerated;
+		this.closedSetSize = closedSetSize;
+	}
+
+	/**
+	 * Returns the depth of the completed layer.
+	 * @return the completed depth
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the number of new states found at the completed depth.
+	 * @return the layer's size
+	 */
+	public long layerSize() {
+		return layerSize;
+	}
+
+	/**
+	 * Returns the time spent on the completed layer.
+	 * @return the layer's duration in milliseconds
+	 */
+	public long layerMillis() {
+		return layerMillis;
+	}
+
+	public long elapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public long statesExpanded() {
+		return statesExpanded;
+	}
+
+	public long statesGenerated() {
+		return statesGenerated;
+	}
+
+	public long closedSetSize() {
+		return closedSetSize;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("depth %d: %d states in %d ms; %d ms total, %d expanded, %d generated, %d in closed set",
+				depth, layerSize, layerMillis, elapsedMillis, statesExpanded, statesGenerated, closedSetSize);
+	}
+}
@@ -274,10 +274,18 @@ public final class Sensor {
 		);
 	}
 
+	/**
+	 * Senses a puzzle from screenshots and writes it in the text format.
+	 * Usage: Sensor output-file screenshot...
+	 */
 	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: Sensor output-file screenshot...");
+			System.exit(1);
+		}
 		List<BufferedImage> imgs = new ArrayList<>();
-		for (int i = 1; i < 10; ++i)
-			imgs.add(ImageIO.read(new File("C:\\Users\\jbosboom\\Pictures\\Steam Unsorted\\290260_2014-10-23_0000"+i+".png")));
-		new Sensor(imgs).sense();
+		for (int i = 1; i < args.length; ++i)
+			imgs.add(ImageIO.read(new File(args[i])));
+		PuzzleFormat.write(new Sensor(imgs).sense(), new File(args[0]));
 	}
 }
@@ -0,0 +1,321 @@
+package com.jeffreybosboom.sokobondbot;
+
+import com.google.common.hash.Hashing;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * An on-disk cache of puzzle solutions, keyed by the puzzle's canonical text
+ * form (see PuzzleFormat), so levels already solved needn't be searched again.
+ * <p>
+ * Solutions live in an append-only log of records:
+ * <pre>
+ * int recordBytes, long fingerprint, short textBytes, byte[] text,
+ * short moves, byte[] moves (Direction ordinals)
+ * </pre>
+ * A memory-mapped open-addressing index maps fingerprints to log offsets.
+ * The index is derived data: it records how much of the log it covers, and
+ * if that doesn't match (a crash between appending and indexing, or a
+ * missing index file) it's rebuilt from the log on open.  A torn record at
+ * the end of the log is truncated away.  Lookups compare the stored puzzle
+ * text, so fingerprint collisions can't return a wrong solution.
+ * <p>
+ * Instances are thread-safe.  The log is locked while open, so a cache
+ * directory can be open only once at a time.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/17/2015
+ */
+public final class SolutionCache implements Closeable {
+	private static final String LOG_FILE = "solutions.log", INDEX_FILE = "solutions.idx";
+	private static final int INDEX_MAGIC = 0x50C0B0D1, INDEX_VERSION = 1;
+	//magic, version, capacity, count, indexed log length
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+	//fingerprint, log offset + 1 (0 marks an empty slot)
+	private static final int SLOT_BYTES = 8 + 8;
+	private static final int MIN_CAPACITY = 1024;
+	//fixed part of a record after its length: fingerprint, text length, move count
+	private static final int RECORD_FIXED_BYTES = 8 + 2 + 2;
+	private final File directory;
+	private final FileChannel log;
+	private final FileLock lock;
+	private MappedByteBuffer index;
+	private int capacity, count;
+	private SolutionCache(File directory, FileChannel log, FileLock lock) {
+		this.directory = directory;
+		this.log = log;
+		this.lock = lock;
+	}
+
+	/**
+	 * Opens the cache in the given directory, creating it if necessary.
+	 * @param directory the cache directory
+	 * @return the cache
+	 * @throws IOException if the cache can't be opened, or it's already open
+	 * in this or another process
+	 */
+	public static SolutionCache open(File directory) throws IOException {
+		Files.createDirectories(directory.toPath());
+		FileChannel log = FileChannel.open(new File(directory, LOG_FILE).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileLock lock;
+		try {
+			lock = log.tryLock();
+		} catch (OverlappingFileLockException ex) {
+			//already open in this JVM
+			lock = null;
+		}
+		if (lock == null) {
+			log.close();
+			throw new IOException("solution cache already open: "+directory);
+		}
+		SolutionCache cache = new SolutionCache(directory, log, lock);
+		try {
+			cache.truncateTornRecord();
+			if (!cache.mapIndex())
+				cache.rebuildIndex(MIN_CAPACITY);
+		} catch (IOException | RuntimeException ex) {
+			cache.close();
+			throw ex;
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the fingerprint of the given puzzle's canonical form.
+	 * @param puzzle a puzzle
+	 * @return the puzzle's fingerprint
+	 */
+	public static long fingerprint(Puzzle puzzle) {
+		return fingerprint(canonicalText(puzzle));
+	}
+
+	private static long fingerprint(byte[] text) {
+		return Hashing.murmur3_128().hashBytes(text).asLong();
+	}
+
+	private static byte[] canonicalText(Puzzle puzzle) {
+		return PuzzleFormat.format(puzzle).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the cached solution to the given puzzle, if any.
+	 * @param puzzle a puzzle
+	 * @return the cached solution, or empty
+	 * @throws IOException if reading the log fails
+	 */
+	public synchronized Optional<Path> get(Puzzle puzzle) throws IOException {
+		byte[] text = canonicalText(puzzle);
+		long fingerprint = fingerprint(text);
+		for (int slot = slotFor(fingerprint); ; slot = (slot + 1) & (capacity - 1)) {
+			long offsetPlusOne = index.getLong(slotPosition(slot) + 8);
+			if (offsetPlusOne == 0)
+				return Optional.empty();
+			if (index.getLong(slotPosition(slot)) != fingerprint)
+				continue;
+			Optional<Path> path = readIfMatches(offsetPlusOne - 1, text);
+			if (path.isPresent())
+				return path;
+		}
+	}
+
+	/**
+	 * Adds a solution to the cache, unless the puzzle already has one.
+	 * @param puzzle a puzzle
+	 * @param solution a solution to the puzzle
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void put(Puzzle puzzle, Path solution) throws IOException {
+		if (get(puzzle).isPresent()) return;
+		byte[] text = canonicalText(puzzle);
+		long fingerprint = fingerprint(text);
+		int moves = 0;
+		for (Direction d : solution)
+			++moves;
+		if (text.length > Short.MAX_VALUE || moves > Short.MAX_VALUE)
+			throw new IllegalArgumentException("puzzle or solution too large to cache");
+
+		int recordBytes = RECORD_FIXED_BYTES + text.length + moves;
+		ByteBuffer record = ByteBuffer.allocate(4 + recordBytes);
+		record.putInt(recordBytes).putLong(fingerprint)
+				.putShort((short)text.length).put(text)
+				.putShort((short)moves);
+		for (Direction d : solution)
+			record.put((byte)d.ordinal());
+		record.flip();
+		long offset = log.size();
+		writeFully(record, offset);
+		log.force(false);
+
+		if ((count + 1) * 2 > capacity)
+			rebuildIndex(capacity * 2);
+		else {
+			insert(fingerprint, offset);
+			setIndexedLength(offset + record.limit());
+		}
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (index != null)
+			index.force();
+		index = null;
+		try {
+			if (lock.isValid())
+				lock.release();
+		} finally {
+			log.close();
+		}
+	}
+
+	private Optional<Path> readIfMatches(long offset, byte[] text) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4 + RECORD_FIXED_BYTES - 2);
+		readFully(header, offset);
+		header.flip();
+		int recordBytes = header.getInt();
+		header.getLong(); //fingerprint
+		int textBytes = header.getShort();
+		if (textBytes != text.length)
+			return Optional.empty();
+		ByteBuffer body = ByteBuffer.allocate(recordBytes - (RECORD_FIXED_BYTES - 2));
+		readFully(body, offset + header.limit());
+		body.flip();
+		byte[] storedText = new byte[textBytes];
+		body.get(storedText);
+		if (!Arrays.equals(storedText, text))
+			return Optional.empty();
+		int moves = body.getShort();
+		Direction[] directions = Direction.values(), path = new Direction[moves];
+		for (int i = 0; i < moves; ++i)
+			path[i] = directions[body.get()];
+		return Optional.of(ListPath.of(Arrays.asList(path)));
+	}
+
+	//drops a partially-written record left by a crash during put()
+	private void truncateTornRecord() throws IOException {
+		long end = 0, size = log.size();
+		ByteBuffer length = ByteBuffer.allocate(4);
+		while (end + 4 <= size) {
+			length.clear();
+			readFully(length, end);
+			int recordBytes = length.getInt(0);
+			if (recordBytes < RECORD_FIXED_BYTES || end + 4 + recordBytes > size)
+				break;
+			end += 4 + recordBytes;
+		}
+		if (end != size)
+			log.truncate(end);
+	}
+
+	//maps an existing index, returning false if it's missing or stale
+	private boolean mapIndex() throws IOException {
+		File file = new File(directory, INDEX_FILE);
+		if (!file.exists()) return false;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() < HEADER_BYTES) return false;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			//a shrinking rebuild leaves the file longer than the table
+			int capacity = buffer.getInt(8);
+			if (buffer.getInt(0) != INDEX_MAGIC || buffer.getInt(4) != INDEX_VERSION
+					|| Integer.bitCount(capacity) != 1
+					|| channel.size() < HEADER_BYTES + (long)capacity * SLOT_BYTES
+					|| buffer.getLong(16) != log.size())
+				return false;
+			this.index = buffer;
+			this.capacity = capacity;
+			this.count = buffer.getInt(12);
+			return true;
+		}
+	}
+
+	//rewrites the index in place to cover the whole log.  (Renaming a new file
+	//over it would fail on Windows while the old mapping is live.)  The
+	//indexed length is invalidated first, so a crash midway forces another
+	//rebuild on the next open.
+	private void rebuildIndex(int minCapacity) throws IOException {
+		int records = 0;
+		ByteBuffer header = ByteBuffer.allocate(4 + 8);
+		for (long offset = 0, size = log.size(); offset < size; ++records) {
+			header.clear();
+			readFully(header, offset);
+			offset += 4 + header.getInt(0);
+		}
+		int capacity = minCapacity;
+		while (records * 2 > capacity)
+			capacity *= 2;
+
+		File file = new File(directory, INDEX_FILE);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			this.index = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long)capacity * SLOT_BYTES);
+		}
+		setIndexedLength(-1);
+		index.force();
+		for (int i = HEADER_BYTES; i < index.capacity(); i += 8)
+			index.putLong(i, 0);
+		this.capacity = capacity;
+		this.count = 0;
+		index.putInt(0, INDEX_MAGIC).putInt(4, INDEX_VERSION).putInt(8, capacity);
+
+		long offset = 0, size = log.size();
+		while (offset < size) {
+			header.clear();
+			readFully(header, offset);
+			insert(header.getLong(4), offset);
+			offset += 4 + header.getInt(0);
+		}
+		index.force();
+		setIndexedLength(size);
+		index.force();
+	}
+
+	private void insert(long fingerprint, long offset) {
+		int slot = slotFor(fingerprint);
+		while (index.getLong(slotPosition(slot) + 8) != 0)
+			slot = (slot + 1) & (capacity - 1);
+		index.putLong(slotPosition(slot), fingerprint);
+		index.putLong(slotPosition(slot) + 8, offset + 1);
+		index.putInt(12, ++count);
+	}
+
+	private void setIndexedLength(long length) {
+		index.putLong(16, length);
+	}
+
+	private int slotFor(long fingerprint) {
+		return (int)(fingerprint ^ (fingerprint >>> 32)) & (capacity - 1);
+	}
+
+	private static int slotPosition(int slot) {
+		return HEADER_BYTES + slot * SLOT_BYTES;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = log.read(buffer, position);
+			if (read < 0)
+				throw new EOFException("solution cache log truncated at "+position);
+			position += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += log.write(buffer, position);
+	}
+}
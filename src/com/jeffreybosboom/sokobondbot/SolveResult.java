@@ -0,0 +1,84 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.Optional;
+
+/**
+ * The outcome of a solve: a solution, proof that there isn't one, or an
+ * abandoned search and why it was abandoned.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/26/2015
+ */
+public final class SolveResult {
+	public enum Status {
+		SOLVED, UNSOLVABLE, ABORTED
+	}
+	private final Status status;
+	private final Path solution;
+	private final SearchAbortedException.Reason abortReason;
+	private SolveResult(Status status, Path solution, SearchAbortedException.Reason abortReason) {
+		this.status = status;
+		this.solution = solution;
+		this.abortReason = abortReason;
+	}
+
+	public static SolveResult solved(Path solution) {
+		if (solution == null)
+			throw new NullPointerException("solution");
+		return new SolveResult(Status.SOLVED, solution, null);
+	}
+
+	public static SolveResult unsolvable() {
+		return new SolveResult(Status.UNSOLVABLE, null, null);
+	}
+
+	public static SolveResult aborted(SearchAbortedException.Reason reason) {
+		if (reason == null)
+			throw new NullPointerException("reason");
+		return new SolveResult(Status.ABORTED, null, reason);
+	}
+
+	static SolveResult of(Optional<Path> solution) {
+		return solution.isPresent() ? solved(solution.get()) : unsolvable();
+	}
+
+	public Status status() {
+		return status;
+	}
+
+	public boolean isSolved() {
+		return status == Status.SOLVED;
+	}
+
+	public Optional<Path> solution() {
+		return Optional.ofNullable(solution);
+	}
+
+	/**
+	 * Returns the solution.
+	 * @return the solution
+	 * @throws IllegalStateException if the puzzle wasn't solved
+	 */
+	public Path path() {
+		if (solution == null)
+			throw new IllegalStateException("no solution: "+this);
+		return solution;
+	}
+
+	/**
+	 * Returns why the search was abandoned, or empty if it wasn't.
+	 * @return the abort reason, or empty
+	 */
+	public Optional<SearchAbortedException.Reason> abortReason() {
+		return Optional.ofNullable(abortReason);
+	}
+
+	@Override
+	public String toString() {
+		switch (status) {
+			case SOLVED: return "solved: "+solution;
+			case UNSOLVABLE: return "unsolvable";
+			case ABORTED: return "aborted: "+abortReason;
+		}
+		throw new AssertionError(status);
+	}
+}
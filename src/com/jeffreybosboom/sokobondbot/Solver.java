@@ -2,14 +2,13 @@ package com.jeffreybosboom.sokobondbot;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSortedSet;
-import com.jeffreybosboom.parallelbfs.ParallelBFS;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 
@@ -20,12 +19,12 @@ import javax.imageio.ImageIO;
  */
 public final class Solver {
 	private final Puzzle puzzle;
+	private volatile SearchMetrics metrics = new SearchMetrics();
 	public Solver(Puzzle puzzle) {
 		this.puzzle = puzzle;
 	}
 
-	public Path solve() {
-		ConcurrentHashMap.KeySetView<Object, Boolean> closedSet = ConcurrentHashMap.newKeySet();
+	public SolveResult solve() {
 		Stopwatch stopwatch = Stopwatch.createStarted();
 
 //		//capture the boundary in the lambda, not the puzzle
@@ -38,24 +37,194 @@ public final class Solver {
 //		if (solution.isPresent()) return solution.get().path();
 //		throw new AssertionError("search ended with no solution?!");
 
+		SolveResult result = solve(SearchEngine.breadthFirst(true), SearchLimits.none(), null, null);
+		System.out.println(stopwatch.stop().elapsed(TimeUnit.MILLISECONDS)+" ms");
+		System.out.println(metrics.getClosedSetSize()+" states in closed set");
+		return result;
+	}
+
+	/**
+	 * Returns the cached solution to the puzzle, or solves it with solve()
+	 * and caches the solution.
+	 * @param cache the solution cache
+	 * @return the result
+	 * @throws IOException if reading or writing the cache fails
+	 */
+	public SolveResult solve(SolutionCache cache) throws IOException {
+		Optional<Path> cached = cache.get(puzzle);
+		if (cached.isPresent()) return SolveResult.solved(cached.get());
+		SolveResult result = solve();
+		if (result.isSolved())
+			cache.put(puzzle, result.path());
+		return result;
+	}
+
+	/**
+	 * Solves the puzzle with the given engine within the given limits,
+	 * reporting each completed layer to the listener.  The search checks the
+	 * cancellation token on every expansion and returns an aborted result
+	 * soon after it's cancelled.
+	 * @param engine the search engine
+	 * @param limits the search's time and memory budgets
+	 * @param token the cancellation token, or null
+	 * @param listener the progress listener, or null
+	 * @return the result
+	 */
+	public SolveResult solve(SearchEngine engine, SearchLimits limits, CancellationToken token, ProgressListener listener) {
+		try {
+			return SolveResult.of(search(engine, token != null ? limits.withCancellation(token) : limits, listener));
+		} catch (RuntimeException ex) {
+			//parallel searches may wrap the exception
+			SearchAbortedException abort = SearchAbortedException.find(ex);
+			if (abort == null) throw ex;
+			return SolveResult.aborted(abort.reason());
+		}
+	}
+
+	/**
+	 * Solves the puzzle with breadth-first search within the given limits.
+	 * The search's metrics are available from metrics() while it runs (and
+	 * over JMX) and after it returns or throws.
+	 * @param limits the search's time and memory budgets
+	 * @param parallel whether to expand states in parallel; batch solvers
+	 * running many puzzles at once should pass false
+	 * @return a shortest solution, or empty if the puzzle has none
+	 * @throws SearchAbortedException if the search exceeds its limits
+	 */
+	public Optional<Path> solve(SearchLimits limits, boolean parallel) {
+		return solve(SearchEngine.breadthFirst(parallel), limits);
+	}
+
+	/**
+	 * Solves the puzzle with the given engine within the given limits.  The
+	 * search's metrics are available from metrics() while it runs (and over
+	 * JMX) and after it returns or throws.
+	 * @param engine the search engine
+	 * @param limits the search's time and memory budgets
+	 * @return a solution, or empty if the puzzle has none
+	 * @throws SearchAbortedException if the search exceeds its limits
+	 */
+	public Optional<Path> solve(SearchEngine engine, SearchLimits limits) {
+		return search(engine, limits, null);
+	}
+
+	private Optional<Path> search(SearchEngine engine, SearchLimits limits, ProgressListener listener) {
+		SearchMetrics metrics = new SearchMetrics(listener);
+		this.metrics = metrics;
+		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(puzzle);
+		metrics.register();
+		try {
+			return engine.find(prepro, new StateUnboxed(puzzle, prepro), metrics, limits);
+		} finally {
+			metrics.finish();
+			metrics.unregister();
+		}
+	}
+
+	/**
+	 * Returns the metrics of the running or most recent breadth-first or
+	 * SearchEngine solve.
+	 * @return the search metrics
+	 */
+	public SearchMetrics metrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the number of states expanded by the last solve().
+	 * @return the number of states expanded
+	 */
+	public long expanded() {
+		return metrics.getStatesExpanded();
+	}
+
+	/**
+	 * Returns the number of states in the closed set at the end of the last
+	 * solve().
+	 * @return the closed set size
+	 */
+	public long closedSetSize() {
+		return metrics.getClosedSetSize();
+	}
+
+	/**
+	 * Returns the approximate memory used by the closed set at the end of the
+	 * last solve().
+	 * @return the closed set's memory footprint in bytes
+	 */
+	public long closedSetBytes() {
+		return metrics.getClosedSetBytes();
+	}
+
+	/**
+	 * Solves the puzzle with A* search.  With an admissible heuristic and
+	 * weight 1, the solution is optimal; larger weights find solutions faster
+	 * but they may be up to weight times longer than optimal.
+	 * @param heuristic the heuristic
+	 * @param weight the weight applied to the heuristic (at least 1)
+	 * @return the result
+	 */
+	public SolveResult solveAStar(Heuristic heuristic, double weight) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(puzzle);
+		AStar astar = new AStar(prepro, heuristic, weight);
+		Optional<StateUnboxed> solution = astar.find(new StateUnboxed(puzzle, prepro));
+		System.out.println(stopwatch.stop().elapsed(TimeUnit.MILLISECONDS)+" ms");
+		System.out.println(astar.expanded()+" states expanded");
+		return SolveResult.of(solution.map(StateUnboxed::path));
+	}
+
+	/**
+	 * Solves the puzzle with iterative-deepening A*, using a transposition
+	 * table of 2^log2TableEntries entries.  Memory use is fixed by the table
+	 * size; the solution is optimal if the heuristic is admissible.
+	 * @param heuristic an admissible heuristic
+	 * @param log2TableEntries log2 of the transposition table size
+	 * @return the result, whose solution is optimal, or aborted with
+	 * DEPTH_LIMIT if IDA* gave up
+	 */
+	public SolveResult solveIDAStar(Heuristic heuristic, int log2TableEntries) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(puzzle);
+		IDAStar idastar = new IDAStar(prepro, heuristic, new TranspositionTable(log2TableEntries));
+		SolveResult result;
+		try {
+			result = SolveResult.of(idastar.find(new StateUnboxed(puzzle, prepro)).map(StateUnboxed::path));
+		} catch (SearchAbortedException ex) {
+			result = SolveResult.aborted(ex.reason());
+		}
+		System.out.println(stopwatch.stop().elapsed(TimeUnit.MILLISECONDS)+" ms");
+		System.out.println(idastar.expanded()+" states expanded");
+		return result;
+	}
+
+	/**
+	 * Solves the puzzle with breadth-first search over macro moves (walks
+	 * ending in a push or bond), which explores far fewer states on open
+	 * levels.  The solution has the fewest pushes and bonds, but may not have
+	 * the fewest moves.
+	 * @return the result
+	 */
+	public SolveResult solveMacro() {
+		Stopwatch stopwatch = Stopwatch.createStarted();
 		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(puzzle);
-		Optional<StateUnboxed> solution = new ParallelBFS<>(s -> s.nextStates(prepro), StateUnboxed::isSolved)
-				.filter(s -> s.isViable(prepro))
-				.filter(s -> closedSet.add(s.pack(prepro)))
-//				.sequential()
-				.find(new StateUnboxed(puzzle, prepro));
+		MacroBFS macro = new MacroBFS(prepro);
+		Optional<StateUnboxed> solution = macro.find(new StateUnboxed(puzzle, prepro));
 		System.out.println(stopwatch.stop().elapsed(TimeUnit.MILLISECONDS)+" ms");
-		System.out.println(closedSet.size()+" states in closed set");
-		if (solution.isPresent()) return solution.get().path();
-		throw new AssertionError("search ended with no solution?!");
+		System.out.println(macro.expanded()+" macro states expanded, "+macro.positions()+" positions walked");
+		return SolveResult.of(solution.map(StateUnboxed::path));
 	}
 
 	public static void main(String[] args) throws Exception {
-		List<BufferedImage> imgs = new ArrayList<>();
-		for (int i = 1; i < 10; ++i)
-			imgs.add(ImageIO.read(new File("C:\\Users\\jbosboom\\Pictures\\Steam Unsorted\\290260_2015-02-19_0000"+i+".png")));
-		Puzzle sensation = new Sensor(imgs).sense();
-		Path solution = new Solver(sensation).solve();
-		System.out.println(solution);
+		Puzzle sensation;
+		if (args.length > 0)
+			sensation = PuzzleFormat.read(new File(args[0]));
+		else {
+			List<BufferedImage> imgs = new ArrayList<>();
+			for (int i = 1; i < 10; ++i)
+				imgs.add(ImageIO.read(new File("C:\\Users\\jbosboom\\Pictures\\Steam Unsorted\\290260_2015-02-19_0000"+i+".png")));
+			sensation = new Sensor(imgs).sense();
+		}
+		System.out.println(new Solver(sensation).solve());
 	}
 }
@@ -0,0 +1,137 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solves many puzzles concurrently, returning a future for each.  Each
+ * request is orchestrated by its own thread (a virtual thread where the JVM
+ * has them), which waits while the search runs on a fork/join pool shared by
+ * all requests, so concurrent searches split the CPUs by work stealing rather
+ * than each claiming the whole machine.
+ * <p/>
+ * Cancelling a request's future (or its deadline passing, which completes the
+ * future with a TimeoutException) abandons its search at the next limit
+ * check.  Each request's SearchLimits caps its closed set's memory, so one
+ * runaway level fails alone instead of starving the others.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/25/2015
+ */
+public final class SolverService implements AutoCloseable {
+	private final SearchEngine engine;
+	private final ForkJoinPool cpuPool;
+	private final ExecutorService orchestrators;
+	private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+	/**
+	 * Creates a service running the given engine on a pool of the given
+	 * parallelism.
+	 * @param engine the search engine
+	 * @param parallelism the number of threads expanding states
+	 */
+	public SolverService(SearchEngine engine, int parallelism) {
+		this.engine = engine;
+		this.cpuPool = new ForkJoinPool(parallelism);
+		this.orchestrators = newOrchestratorExecutor();
+	}
+
+	/**
+	 * Creates a service running parallel breadth-first search with one thread
+	 * per CPU.
+	 */
+	public SolverService() {
+		this(SearchEngine.breadthFirst(true), Runtime.getRuntime().availableProcessors());
+	}
+
+	//Executors.newVirtualThreadPerTaskExecutor() is only in JDK 21+, so look
+	//it up reflectively and fall back to platform threads.
+	private static ExecutorService newOrchestratorExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ex) {
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "solver-service");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * Submits a puzzle to be solved within the given limits.
+	 * @param puzzle the puzzle
+	 * @param limits the search's time and memory budgets
+	 * @return a future completed with the solution (empty if the puzzle has
+	 * none), or exceptionally with a SearchAbortedException if the search
+	 * exceeds its limits
+	 * @throws RejectedExecutionException if the service has been closed
+	 */
+	public CompletableFuture<Optional<Path>> submit(Puzzle puzzle, SearchLimits limits) {
+		CompletableFuture<Optional<Path>> future = new CompletableFuture<>();
+		//done means cancelled or timed out, as the search completes it last
+		SearchLimits requestLimits = limits.withCancellation(future::isDone);
+		pending.add(future);
+		future.whenComplete((r, t) -> pending.remove(future));
+		try {
+			orchestrators.execute(() -> run(puzzle, requestLimits, future));
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+			throw ex;
+		}
+		return future;
+	}
+
+	/**
+	 * Submits a puzzle to be solved within the given limits and by the given
+	 * deadline, measured from now.  If the deadline passes, the future is
+	 * completed with a TimeoutException and the search is abandoned.
+	 * @param puzzle the puzzle
+	 * @param limits the search's time and memory budgets
+	 * @param deadline the time allowed, including time waiting to start
+	 * @param unit the unit of deadline
+	 * @return a future completed with the solution
+	 * @throws RejectedExecutionException if the service has been closed
+	 */
+	public CompletableFuture<Optional<Path>> submit(Puzzle puzzle, SearchLimits limits, long deadline, TimeUnit unit) {
+		return submit(puzzle, limits).orTimeout(deadline, unit);
+	}
+
+	private void run(Puzzle puzzle, SearchLimits limits, CompletableFuture<Optional<Path>> future) {
+		if (future.isDone()) return;
+		try {
+			future.complete(cpuPool.submit(() -> new Solver(puzzle).solve(engine, limits)).get());
+		} catch (ExecutionException ex) {
+			future.completeExceptionally(ex.getCause());
+		} catch (InterruptedException | RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+	}
+
+	/**
+	 * Returns the number of submitted requests not yet complete.
+	 * @return the number of pending requests
+	 */
+	public int pending() {
+		return pending.size();
+	}
+
+	/**
+	 * Cancels all pending requests and shuts the service down.
+	 */
+	@Override
+	public void close() {
+		orchestrators.shutdown();
+		for (CompletableFuture<?> f : pending)
+			f.completeExceptionally(new CancellationException("solver service closed"));
+		cpuPool.shutdown();
+	}
+}
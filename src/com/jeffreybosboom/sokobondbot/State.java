@@ -34,7 +34,7 @@ public final class State {
 		this(puzzle.atoms(), puzzle.bonds(), puzzle.playerAtom());
 	}
 	public State(Map<Coordinate, Element> atoms, Multiset<Pair<Coordinate, Coordinate>> bonds, Coordinate playerAtom) {
-		this(atoms, bonds, playerAtom, TwoLongPath.empty());
+		this(atoms, bonds, playerAtom, LinkedPath.empty());
 	}
 
 	private State(Map<Coordinate, Element> atoms, Multiset<Pair<Coordinate, Coordinate>> bonds, Coordinate playerAtom, Path path) {
@@ -1,14 +1,16 @@
 package com.jeffreybosboom.sokobondbot;
 
 import com.google.common.collect.Multiset;
-import com.jeffreybosboom.parallelbfs.DataContainer;
 import static java.lang.Integer.lowestOneBit;
 import static java.lang.Integer.numberOfTrailingZeros;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -25,27 +27,120 @@ public final class StateUnboxed {
 	//for player atom (atoms[0]) only
 	private static final int TOTAL_BONDS =	0b11111000_00000000_00000000_00000000;
 	private static final int COORD_MASK = ROW_MASK | COL_MASK;
+	//the number of distinct total bond counts, for LayeredStateSet
+	static final int BOND_LAYERS = (TOTAL_BONDS >>> numberOfTrailingZeros(TOTAL_BONDS)) + 1;
 	private static final int PLAYER_ATOM = 0;
 	private final int[] atoms;
+	//Zobrist fingerprint, maintained incrementally as atoms move and bond
+	private final long hash;
 	private final Path path;
+	//moves from the initial state (fits in the object's alignment padding)
+	private final int depth;
 
 	public static final class PreprocessedPuzzle {
-		private final boolean[] boundary;
+		//neighbor cell index in each direction (cell * 4 + direction ordinal),
+		//or NO_CELL for walls and off-grid
+		private final int[] neighbors;
+		//per-cell 256-bit sets (4 longs each) of the cells adjacent to it
+		private final long[] adjacency;
+		//per-direction 256-bit sets of the cells that can't move that way
+		private final long[] blocked;
 		private final List<Coordinate> initialAtomOrder;
 		private final byte[] elementRanges;
 		private final char[] forbiddenBonds;
-		private PreprocessedPuzzle(boolean[] boundary, List<Coordinate> initialAtomOrder, byte[] elementRanges, char[] forbiddenBonds) {
-			this.boundary = boundary;
+		//per-atom random keys for each cell; atoms of the same element share
+		//keys, so fingerprints are symmetric under swapping them
+		private final long[][] zobrist;
+		//dense numbering of the cells atoms can reach, or -1
+		private final byte[] cellOrdinal;
+		//bits per atom in pack() keys (cell ordinal, then right and down bonds)
+		private final int atomBits;
+		//width of pack() keys
+		private final int packedLongs;
+		//per-cell 256-bit sets (4 longs each) of the cells a lone atom can be
+		//pushed to, and of the cells adjacent to those
+		private final long[] pushReach, pushNeighborhood;
+		//the playfield's non-identity symmetries, as cell-to-cell maps
+		private final byte[][] symmetries;
+		private PreprocessedPuzzle(int[] neighbors, long[] adjacency, List<Coordinate> initialAtomOrder, byte[] elementRanges, char[] forbiddenBonds, long[][] zobrist, byte[] cellOrdinal, long[] pushReach, long[] pushNeighborhood, byte[][] symmetries) {
+			this.neighbors = neighbors;
+			this.adjacency = adjacency;
+			this.blocked = new long[4 * 4];
+			for (int cell = 0; cell < 256; ++cell)
+				for (int dir = 0; dir < 4; ++dir)
+					if (neighbors[cell * 4 + dir] == NO_CELL)
+						setBit(blocked, dir * 4, cell);
 			this.initialAtomOrder = initialAtomOrder;
 			this.elementRanges = elementRanges;
 			this.forbiddenBonds = forbiddenBonds;
+			this.zobrist = zobrist;
+			this.cellOrdinal = cellOrdinal;
+			int cells = 0;
+			for (byte o : cellOrdinal)
+				cells = Math.max(cells, o + 1);
+			this.atomBits = 32 - Integer.numberOfLeadingZeros(Math.max(cells - 1, 1)) + 2;
+			this.packedLongs = (initialAtomOrder.size() * atomBits + Long.SIZE - 1) / Long.SIZE;
+			this.pushReach = pushReach;
+			this.pushNeighborhood = pushNeighborhood;
+			this.symmetries = symmetries;
+		}
+		//true if lone atoms in these cells could ever be pushed adjacent
+		private boolean canMeetByPushing(int cell1, int cell2) {
+			for (int i = 0; i < 4; ++i)
+				if ((pushNeighborhood[cell1 * 4 + i] & pushReach[cell2 * 4 + i]) != 0)
+					return true;
+			return false;
+		}
+		public int packedLongs() {
+			return packedLongs;
+		}
+		public int atoms() {
+			return initialAtomOrder.size();
+		}
+		/**
+		 * Returns the order of the playfield's symmetry group (1 if the
+		 * playfield has no symmetries but the identity).
+		 * @return the number of board symmetries
+		 */
+		public int symmetries() {
+			return symmetries.length + 1;
+		}
+		/**
+		 * Returns the number of bonds in a state packed by pack().
+		 * @param keys the array containing the packed state
+		 * @param offset the index of the packed state's first long
+		 * @return the number of bonds in the packed state
+		 */
+		public int packedBonds(long[] keys, int offset) {
+			int bonds = 0;
+			for (int atom = 0, bit = 0; atom < initialAtomOrder.size(); ++atom, bit += atomBits) {
+				//bond bits are the low two bits of each atom field
+				long field = keys[offset + (bit >> 6)] >>> (bit & 63);
+				if ((bit & 63) == 63)
+					field |= keys[offset + (bit >> 6) + 1] << 1;
+				bonds += Long.bitCount(field & 0b11);
+			}
+			return bonds;
 		}
 	}
 
 	public static PreprocessedPuzzle preprocess(Puzzle puzzle) {
+		SearchEvents.Preprocess event = new SearchEvents.Preprocess();
+		event.begin();
 		boolean[] boundary = new boolean[256];
 		for (Coordinate c : puzzle.boundary())
 			boundary[c.row() << 4 | c.col()] = true;
+		int[] neighbors = new int[256 * 4];
+		long[] adjacency = new long[256 * 4];
+		for (int cell = 0; cell < 256; ++cell)
+			for (int dir = 0; dir < COORD_ADD.length; ++dir) {
+				int row = (cell >> 4) + COORD_ADD[dir][0], col = (cell & 0xF) + COORD_ADD[dir][1];
+				int neighbor = row < 0 || row > 15 || col < 0 || col > 15 || boundary[row << 4 | col] ?
+						NO_CELL : row << 4 | col;
+				neighbors[cell * 4 + dir] = neighbor;
+				if (neighbor != NO_CELL)
+					setBit(adjacency, cell * 4, neighbor);
+			}
 
 		List<Coordinate> initialAtomOrder = new ArrayList<>(puzzle.atoms().keySet());
 		initialAtomOrder.remove(puzzle.playerAtom());
@@ -70,18 +165,144 @@ public final class StateUnboxed {
 		for (int i = 0; i < elementRangesList.size(); ++i)
 			elementRanges[i] = elementRangesList.get(i);
 
+		//fixed seed so fingerprints are reproducible between runs
+		SplittableRandom random = new SplittableRandom(0x50C0B0DL);
+		long[][] zobrist = new long[initialAtomOrder.size()][];
+		zobrist[PLAYER_ATOM] = random.longs(256).toArray();
+		for (byte r : elementRanges) {
+			long[] keys = random.longs(256).toArray();
+			for (int i = (r & 0xF0) >> 4; i < (r & 0xF); ++i)
+				zobrist[i] = keys;
+		}
+
+		//Number the cells atoms could ever occupy (those connected to an atom),
+		//so keys need only log2(reachable cells) bits per atom.
+		byte[] cellOrdinal = new byte[256];
+		Arrays.fill(cellOrdinal, (byte)-1);
+		//keep counting past the limit so the error can say how far over we are
+		boolean[] reached = new boolean[256];
+		Deque<Coordinate> frontier = new ArrayDeque<>(initialAtomOrder);
+		int cells = 0;
+		while (!frontier.isEmpty()) {
+			Coordinate c = frontier.pop();
+			if (c.row() < 0 || c.row() > 15 || c.col() < 0 || c.col() > 15) continue;
+			int cell = c.row() << 4 | c.col();
+			if (boundary[cell] || reached[cell]) continue;
+			reached[cell] = true;
+			if (cells < 128)
+				cellOrdinal[cell] = (byte)cells;
+			++cells;
+			c.neighbors().forEachOrdered(frontier::push);
+		}
+		if (cells > 128)
+			throw new IllegalArgumentException("puzzle has "+cells+" reachable cells, more than 128");
+
+		//Sokoban-style dead squares: a lone atom only moves when pushed, and a
+		//push needs open cells on both sides of it.  Corners can't be left at
+		//all; cells along a wall can only be left along the wall.
+		long[] pushReach = new long[256 * 4], pushNeighborhood = new long[256 * 4];
+		int[] queue = new int[256];
+		for (int origin = 0; origin < 256; ++origin) {
+			if (cellOrdinal[origin] == -1) continue;
+			int head = 0, tail = 0;
+			queue[tail++] = origin;
+			setBit(pushReach, origin * 4, origin);
+			while (head < tail) {
+				int cell = queue[head++];
+				for (int dir = 0; dir < COORD_ADD.length; ++dir) {
+					int neighbor = neighbors[cell * 4 + dir];
+					if (neighbor == NO_CELL) continue;
+					setBit(pushNeighborhood, origin * 4, neighbor);
+					//directions pair up as UP/DOWN and LEFT/RIGHT
+					if (neighbors[cell * 4 + (dir ^ 1)] == NO_CELL) continue;
+					if (testBit(pushReach, origin * 4, neighbor)) continue;
+					setBit(pushReach, origin * 4, neighbor);
+					queue[tail++] = neighbor;
+				}
+			}
+		}
+
+		byte[][] symmetries = findSymmetries(cellOrdinal);
+
 		//hack to get atoms array
-		int[] atoms = new StateUnboxed(puzzle, new PreprocessedPuzzle(boundary, initialAtomOrder, elementRanges, null)).atoms;
+		int[] atoms = new StateUnboxed(puzzle, new PreprocessedPuzzle(neighbors, adjacency, initialAtomOrder, elementRanges, null, zobrist, cellOrdinal, pushReach, pushNeighborhood, symmetries)).atoms;
 		char[] forbiddenBonds = computeForbiddenBonds(atoms);
 
-		return new PreprocessedPuzzle(boundary, initialAtomOrder, elementRanges, forbiddenBonds);
+		PreprocessedPuzzle prepro = new PreprocessedPuzzle(neighbors, adjacency, initialAtomOrder, elementRanges, forbiddenBonds, zobrist, cellOrdinal, pushReach, pushNeighborhood, symmetries);
+		if (event.shouldCommit()) {
+			event.atoms = atoms.length;
+			event.cells = cells;
+			event.symmetries = symmetries.length + 1;
+			event.commit();
+		}
+		return prepro;
+	}
+
+	/**
+	 * Finds the rotations and reflections of the grid that map the playfield
+	 * (the cells atoms can reach) onto itself.  Moves, bonding and the goal
+	 * depend only on which cells are open, so a state and its image under a
+	 * symmetry are the same number of moves from solved.
+	 */
+	private static byte[][] findSymmetries(byte[] cellOrdinal) {
+		int minRow = 15, maxRow = 0, minCol = 15, maxCol = 0;
+		for (int cell = 0; cell < 256; ++cell) {
+			if (cellOrdinal[cell] == -1) continue;
+			minRow = Math.min(minRow, cell >> 4);
+			maxRow = Math.max(maxRow, cell >> 4);
+			minCol = Math.min(minCol, cell & 0xF);
+			maxCol = Math.max(maxCol, cell & 0xF);
+		}
+		int height = maxRow - minRow, width = maxCol - minCol;
+		List<byte[]> symmetries = new ArrayList<>();
+		//bit 2 transposes, bit 1 flips columns, bit 0 flips rows; 0 is identity
+		transform: for (int t = 1; t < 8; ++t) {
+			//transposing only maps a square bounding box onto itself
+			if ((t & 4) != 0 && height != width) continue;
+			byte[] map = new byte[256];
+			for (int cell = 0; cell < 256; ++cell) {
+				if (cellOrdinal[cell] == -1) continue;
+				int row = (cell >> 4) - minRow, col = (cell & 0xF) - minCol;
+				if ((t & 4) != 0) {
+					int temp = row;
+					row = col;
+					col = temp;
+				}
+				if ((t & 1) != 0) row = height - row;
+				if ((t & 2) != 0) col = width - col;
+				int image = (row + minRow) << 4 | (col + minCol);
+				if (cellOrdinal[image] == -1) continue transform;
+				map[cell] = (byte)image;
+			}
+			symmetries.add(map);
+		}
+		return symmetries.toArray(new byte[0][]);
+	}
+
+	private static void setBit(long[] bitboards, int offset, int bit) {
+		bitboards[offset + (bit >> 6)] |= 1L << bit;
+	}
+
+	private static boolean testBit(long[] bitboards, int offset, int bit) {
+		return (bitboards[offset + (bit >> 6)] & (1L << bit)) != 0;
 	}
 
 	private static char[] computeForbiddenBonds(int[] atoms) {
+		SearchEvents.ForbiddenBonds event = new SearchEvents.ForbiddenBonds();
+		event.begin();
 		char[] possibleBonds = new char[atoms.length];
 		solveNoGeometry(atoms, possibleBonds);
 		for (int i = 0; i < possibleBonds.length; ++i)
 			possibleBonds[i] = (char)~possibleBonds[i];
+		if (event.shouldCommit()) {
+			int forbidden = 0;
+			for (int i = 0; i < atoms.length; ++i)
+				//each pair once, ignoring the unused high bits
+				forbidden += Integer.bitCount(possibleBonds[i] & ((1 << atoms.length) - 1) & -(2 << i));
+			event.atoms = atoms.length;
+			event.forbiddenBonds = forbidden;
+			event.commit();
+		}
 		return possibleBonds;
 	}
 
@@ -105,7 +326,8 @@ public final class StateUnboxed {
 	}
 
 	public StateUnboxed(Puzzle puzzle, PreprocessedPuzzle prepro) {
-		this.path = TwoLongPath.empty();
+		this.path = LinkedPath.empty();
+		this.depth = 0;
 		this.atoms = new int[puzzle.atoms().size()];
 		atoms[PLAYER_ATOM] = packFE(puzzle.atoms().get(puzzle.playerAtom()).maxElectrons()) |
 				pack(puzzle.playerAtom());
@@ -121,14 +343,21 @@ public final class StateUnboxed {
 			if (!bond(atoms, a, b))
 				throw new IllegalArgumentException("Insoluble puzzle");
 		}
+		this.hash = fingerprint(prepro);
 	}
 
-	private StateUnboxed(int[] atoms, Path path) {
+	private StateUnboxed(int[] atoms, long hash, Path path, int depth) {
 		this.atoms = atoms;
+		this.hash = hash;
 		this.path = path;
+		this.depth = depth;
 	}
 
 	public boolean isSolved() {
+		return isSolved(atoms);
+	}
+
+	private static boolean isSolved(int[] atoms) {
 		//TODO: & everything and ELECTRON_MASK (avoids branch)
 		for (int i = 0; i < atoms.length; ++i)
 			if (freeElectrons(atoms, i) != 0)
@@ -137,53 +366,330 @@ public final class StateUnboxed {
 	}
 
 	public boolean isViable(PreprocessedPuzzle prepro) {
+		return isViable(atoms, prepro);
+	}
+
+	private static boolean isViable(int[] atoms, PreprocessedPuzzle prepro) {
 		//if forbidden bond, not viable.
 		for (int i = 0; i < atoms.length; ++i)
 			if ((bonds(atoms, i) & prepro.forbiddenBonds[i]) != 0)
 				return false;
+
+		//Every atom with free electrons needs a partner it can still bond with.
+		//Bonds never break, so a lone atom with one free electron (other than
+		//the player) only moves by being pushed until it forms its one bond.
+		//Two such atoms whose push reaches never touch can't bond together.
+		for (int i = 0; i < atoms.length; ++i) {
+			if (freeElectrons(atoms, i) == 0) continue;
+			boolean pushOnly = isPushOnly(atoms, i);
+			int cell = coordByte(atoms, i) & 0xFF;
+			boolean hasPartner = false;
+			for (int j = 0; j < atoms.length && !hasPartner; ++j) {
+				if (j == i || freeElectrons(atoms, j) == 0) continue;
+				if (bonded(atoms, i, j) || (prepro.forbiddenBonds[i] & (1 << j)) != 0) continue;
+				hasPartner = !(pushOnly && isPushOnly(atoms, j) &&
+						!prepro.canMeetByPushing(cell, coordByte(atoms, j) & 0xFF));
+			}
+			if (!hasPartner) return false;
+		}
 		return true;
 	}
 
+	private static boolean isPushOnly(int[] atoms, int atom) {
+		return atom != PLAYER_ATOM && bonds(atoms, atom) == 0 && freeElectrons(atoms, atom) == 1;
+	}
+
+	/**
+	 * Returns a lower bound on the number of moves needed to solve this state,
+	 * or Heuristic.DEAD_END if some atom can never use its free electrons.
+	 * Every moving atom moves by the same vector, so the Manhattan distance
+	 * between two atoms changes by at most one per move.  Thus an atom with
+	 * free electrons needs at least (distance - 1) moves to become adjacent to
+	 * the nearest partner it can still bond with, and at least one move to
+	 * actually form the bond.
+	 * @param prepro the preprocessed puzzle
+	 * @return an admissible estimate of the moves remaining
+	 */
+	public int remainingMovesLowerBound(PreprocessedPuzzle prepro) {
+		int bound = 0;
+		for (int i = 0; i < atoms.length; ++i) {
+			if (freeElectrons(atoms, i) == 0) continue;
+			int row = row(atoms, i), col = col(atoms, i);
+			int nearest = Integer.MAX_VALUE;
+			for (int j = 0; j < atoms.length; ++j) {
+				if (j == i || freeElectrons(atoms, j) == 0) continue;
+				if (bonded(atoms, i, j) || (prepro.forbiddenBonds[i] & (1 << j)) != 0) continue;
+				nearest = Math.min(nearest, absdiff(row, row(atoms, j)) + absdiff(col, col(atoms, j)));
+			}
+			if (nearest == Integer.MAX_VALUE)
+				return Heuristic.DEAD_END;
+			bound = Math.max(bound, Math.max(nearest - 1, 1));
+		}
+		return bound;
+	}
+
 	public Path path() {
 		return path;
 	}
 
+	/**
+	 * Copies this state's atoms into the given array.
+	 * @param dst the destination array
+	 * @param offset the offset in dst to write at
+	 */
+	void copyAtoms(int[] dst, int offset) {
+		System.arraycopy(atoms, 0, dst, offset, atoms.length);
+	}
+
+	/**
+	 * Returns the number of moves from the initial state to this state.
+	 * @return this state's depth
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the number of bonds in this state.
+	 * @return this state's total bonds
+	 */
+	public int totalBonds() {
+		return totalBonds(atoms);
+	}
+
 	public Stream<StateUnboxed> nextStates(PreprocessedPuzzle prepro) {
 		List<StateUnboxed> nextStates = new ArrayList<>(4);
+		forEachSuccessor(new Successor(prepro), s -> nextStates.add(s.toState()));
+		return nextStates.stream();
+	}
+
+	/**
+	 * Receives successors from forEachSuccessor().
+	 */
+	@FunctionalInterface
+	public interface SuccessorVisitor {
+		/**
+		 * Visits a successor.  The successor object and its contents are
+		 * reused for the next successor, so visitors that want to keep it must
+		 * call toState().
+		 * @param successor the successor
+		 */
+		public void visit(Successor successor);
+	}
+
+	/**
+	 * A successor being visited by forEachSuccessor(), backed by reusable
+	 * scratch buffers.  Nothing is allocated unless toState() is called, so
+	 * successors rejected by isViable() or a closed set cost no garbage.
+	 * Instances are not thread-safe; use one per thread.
+	 */
+	public static final class Successor implements PackedStateSet.Key {
+		private final PreprocessedPuzzle prepro;
+		private final int[] atoms;
+		private final int[] packScratch;
+		//canonicalize() working sets: a symmetric image, the best image so
+		//far, and their keys for breaking fingerprint ties
+		private final int[] image, canonical;
+		private final long[] imageKey, canonicalKey;
+		private final PackedStateSet.Key canonicalWriter = this::writeCanonicalTo;
+		private boolean canonicalized;
+		private long canonicalHash;
+		//occupancy of the parent state, as a 256-bit set and a cell-to-atom map
+		private final long[] occupied = new long[4];
+		private final byte[] cellAtom = new byte[256];
+		//tryMove working sets: all moving cells, the frontier, its targets
+		private final long[] moving = new long[4], frontier = new long[4], targets = new long[4];
+		private StateUnboxed parent;
+		private Direction direction;
+		private long hash;
+		//bitfield of the atoms this move moved
+		private int moved;
+		public Successor(PreprocessedPuzzle prepro) {
+			this.prepro = prepro;
+			this.atoms = new int[prepro.initialAtomOrder.size()];
+			this.packScratch = new int[atoms.length];
+			this.image = new int[atoms.length];
+			this.canonical = new int[atoms.length];
+			this.imageKey = new long[prepro.packedLongs];
+			this.canonicalKey = new long[prepro.packedLongs];
+		}
+		public StateUnboxed parent() {
+			return parent;
+		}
+		public Direction direction() {
+			return direction;
+		}
+		public long hash() {
+			return hash;
+		}
+		public boolean isViable() {
+			return StateUnboxed.isViable(atoms, prepro);
+		}
+		public boolean isSolved() {
+			return StateUnboxed.isSolved(atoms);
+		}
+		public int totalBonds() {
+			return StateUnboxed.totalBonds(atoms);
+		}
+		//returns a bitfield of the atoms moved (pushed or not) by this move
+		int moved() {
+			return moved;
+		}
+		int playerCell() {
+			return coordByte(atoms, PLAYER_ATOM) & 0xFF;
+		}
+		/**
+		 * Returns this successor's fingerprint under the puzzle's board
+		 * symmetries, which is the same for all its symmetric images.
+		 * @return this successor's canonical fingerprint
+		 */
+		public long canonicalHash() {
+			canonicalize();
+			return canonicalHash;
+		}
+		/**
+		 * Returns a key that writes this successor's canonical image, which
+		 * is the same for all its symmetric images.  Use with
+		 * canonicalHash().
+		 * @return a key writing this successor's canonical form
+		 */
+		public PackedStateSet.Key canonicalKey() {
+			return canonicalWriter;
+		}
+		private void canonicalize() {
+			if (canonicalized) return;
+			canonicalHash = StateUnboxed.canonicalize(atoms, hash, prepro, image, canonical, packScratch, imageKey, canonicalKey);
+			canonicalized = true;
+		}
+		private void writeCanonicalTo(long[] dst, int offset) {
+			canonicalize();
+			pack(canonical, prepro, packScratch, dst, offset);
+		}
+		@Override
+		public void writeTo(long[] dst, int offset) {
+			pack(atoms, prepro, packScratch, dst, offset);
+		}
+		/**
+		 * Copies this successor's atoms into the given array.
+		 * @param dst the destination array
+		 * @param offset the offset in dst to write at
+		 */
+		void copyAtoms(int[] dst, int offset) {
+			System.arraycopy(atoms, 0, dst, offset, atoms.length);
+		}
+		/**
+		 * Copies this successor into a new state.
+		 * @return a new state equal to this successor
+		 * @throws IllegalStateException if this successor was generated
+		 * without a parent state
+		 */
+		public StateUnboxed toState() {
+			if (parent == null)
+				throw new IllegalStateException("successor of a packed state");
+			return new StateUnboxed(atoms.clone(), hash, parent.path.append(direction), parent.depth + 1);
+		}
+	}
+
+	/**
+	 * Generates this state's successors into the given scratch object, calling
+	 * the visitor for each one.  Failed moves reuse the scratch buffers, so
+	 * nothing is allocated.
+	 * @param scratch the scratch successor, which must have been created for
+	 * the same puzzle
+	 * @param visitor the visitor
+	 */
+	public void forEachSuccessor(Successor scratch, SuccessorVisitor visitor) {
+		scratch.parent = this;
+		forEachSuccessor(atoms, hash, scratch, visitor);
+		scratch.parent = null;
+	}
+
+	/**
+	 * Generates the successors of the state with the given atoms and
+	 * fingerprint, for searches that store states packed rather than as
+	 * StateUnboxed objects.  The successors have no parent, so toState() can't
+	 * be called on them.
+	 * @param atoms the state's atoms
+	 * @param hash the state's fingerprint
+	 * @param scratch the scratch successor
+	 * @param visitor the visitor
+	 */
+	static void forEachSuccessor(int[] atoms, long hash, Successor scratch, SuccessorVisitor visitor) {
+		PreprocessedPuzzle prepro = scratch.prepro;
+		int[] newAtoms = scratch.atoms;
+		Arrays.fill(scratch.occupied, 0);
+		for (int i = 0; i < atoms.length; ++i) {
+			int cell = coordByte(atoms, i) & 0xFF;
+			setBit(scratch.occupied, 0, cell);
+			scratch.cellAtom[cell] = (byte)i;
+		}
 		char molecule = molecule(atoms, 0);
 		fail: for (Direction dir : Direction.values()) {
-			int[] newAtoms = atoms.clone();
-			int movedAtoms = tryMove(newAtoms, molecule, dir.ordinal(), prepro.boundary);
+			System.arraycopy(atoms, 0, newAtoms, 0, atoms.length);
+			int movedAtoms = tryMove(atoms, newAtoms, molecule, dir.ordinal(), scratch);
 			if (movedAtoms == -1)
-				continue fail; //TODO: try to reuse the newly-cloned array
+				continue fail;
+			scratch.moved = movedAtoms;
+			long newHash = moveHash(hash, atoms, newAtoms, movedAtoms, prepro);
 
 			//if an atom had free electrons before moving, it should bond with
 			//every (newly-)adjacent atom that also had electrons and isn't
-			//already bonded with.  if we run out of electrons, that's nondeterminism.
+			//already bonded with, including bonds made with other moved atoms
+			//earlier in this loop.  if we run out of electrons, that's nondeterminism.
 			while (movedAtoms != 0) {
 				int movedBit = lowestOneBit(movedAtoms);
 				int movedIdx = numberOfTrailingZeros(movedAtoms);
 				movedAtoms &= ~movedBit;
 
 				if (freeElectrons(atoms, movedIdx) == 0) continue;
-				int row = row(newAtoms, movedIdx), col = col(newAtoms, movedIdx);
+				int adjacencyOffset = (coordByte(newAtoms, movedIdx) & 0xFF) * 4;
 				for (int i = 0; i < newAtoms.length; ++i) {
 					if (freeElectrons(atoms, i) == 0) continue;
-					if (bonded(atoms, movedIdx, i)) continue;
-					//adjacent iff one of row/col is equal and the other has
-					//absolute difference 1.  (implies never adjacent to self)
-					int irow = row(newAtoms, i), icol = col(newAtoms, i);
-					if ((row == irow && absdiff(col, icol) == 1) ||
-							(col == icol && absdiff(row, irow) == 1)) {
+					if (bonded(newAtoms, movedIdx, i)) continue;
+					if (testBit(prepro.adjacency, adjacencyOffset, coordByte(newAtoms, i) & 0xFF)) {
 						if (!bond(newAtoms, movedIdx, i))
 							continue fail; //nondeterminism
+						newHash ^= bondKey(coordByte(newAtoms, movedIdx) & 0xFF, coordByte(newAtoms, i) & 0xFF);
 					}
 				}
 			}
 
-			nextStates.add(new StateUnboxed(newAtoms, path.append(dir)));
+			assert newHash == fingerprint(newAtoms, prepro);
+			scratch.direction = dir;
+			scratch.hash = newHash;
+			scratch.canonicalized = false;
+			visitor.visit(scratch);
 		}
-		return nextStates.stream();
+	}
+
+	//updates the fingerprint for the moved atoms and the bonds they're part of
+	private static long moveHash(long hash, int[] before, int[] after, int moved, PreprocessedPuzzle prepro) {
+		int remaining = moved;
+		while (remaining != 0) {
+			int i = numberOfTrailingZeros(remaining);
+			remaining &= remaining - 1;
+			int oldCell = coordByte(before, i) & 0xFF, newCell = coordByte(after, i) & 0xFF;
+			hash ^= prepro.zobrist[i][oldCell] ^ prepro.zobrist[i][newCell];
+			//bonds within the moved set are visited from both ends; take the
+			//lower-indexed one
+			int bonds = bonds(before, i) & ~(moved & ((1 << i) - 1));
+			while (bonds != 0) {
+				int j = numberOfTrailingZeros(bonds);
+				bonds &= bonds - 1;
+				hash ^= bondKey(oldCell, coordByte(before, j) & 0xFF)
+						^ bondKey(newCell, coordByte(after, j) & 0xFF);
+			}
+		}
+		return hash;
+	}
+
+	//returns a bitfield of atoms in the given atom's molecule
+	char molecule(int atom) {
+		return molecule(atoms, atom);
+	}
+
+	int playerCell() {
+		return coordByte(atoms, PLAYER_ATOM) & 0xFF;
 	}
 
 	//returns a bitfield of atoms in this molecule
@@ -207,91 +713,264 @@ public final class StateUnboxed {
 	private static final int[][] COORD_ADD = {
 		{-1, 0}, {1, 0}, {0, -1}, {0, 1}
 	};
-	private static int tryMove(int[] newAtoms, char molecule, int dirOrdinal, boolean[] boundary) {
-		int moved = 0, needRecurse = 0;
-		char toMove = molecule;
-		while (toMove != 0) {
-			int atomBit = lowestOneBit(toMove);
-			int atom = numberOfTrailingZeros(atomBit);
-			toMove &= ~atomBit;
-			int targetCoord = pack(row(newAtoms, atom)+COORD_ADD[dirOrdinal][0],
-					col(newAtoms, atom)+COORD_ADD[dirOrdinal][1]);
-			if (boundary[targetCoord >> numberOfTrailingZeros(COORD_MASK)])
-				return -1;
-			for (int i = 0; i < newAtoms.length; ++i)
-				//atom in the target coordinate, not in our molecule
-				if ((newAtoms[i] & COORD_MASK) == targetCoord &&
-						(molecule & (1 << i)) == 0)
-					needRecurse |= (1 << i);
-			newAtoms[atom] = (newAtoms[atom] & ~COORD_MASK) | targetCoord; //set
-			moved |= atomBit;
-		}
-
-		while (needRecurse != 0) {
-			int nrBit = lowestOneBit(needRecurse);
-			char recurseMolecule = molecule(newAtoms, numberOfTrailingZeros(nrBit));
-			int r = tryMove(newAtoms, recurseMolecule, dirOrdinal, boundary);
-			if (r == -1) return -1;
-			moved |= r;
-			//anything that moved during the recursion no longer needs recursion
-			needRecurse &= ~r;
+	private static final int NO_CELL = -1;
+	/**
+	 * Moves the given molecule and everything it pushes one cell in the given
+	 * direction, returning a bitfield of moved atoms or -1 if something would
+	 * be pushed into a wall.  Pushes are found on the parent state's occupancy
+	 * bitboard: each round shifts the newly-moving cells' bitboard one cell
+	 * and intersects it with the occupied cells, pulling in the molecules hit.
+	 */
+	private static int tryMove(int[] atoms, int[] newAtoms, char molecule, int dirOrdinal, Successor scratch) {
+		long[] moving = scratch.moving, frontier = scratch.frontier, targets = scratch.targets;
+		long[] occupied = scratch.occupied, blocked = scratch.prepro.blocked;
+		Arrays.fill(moving, 0);
+		Arrays.fill(frontier, 0);
+		int moved = molecule;
+		for (int m = moved; m != 0; m &= m - 1)
+			setBit(frontier, 0, coordByte(atoms, numberOfTrailingZeros(m)) & 0xFF);
+		while (true) {
+			boolean anyHit = false;
+			for (int i = 0; i < 4; ++i) {
+				if ((frontier[i] & blocked[dirOrdinal * 4 + i]) != 0)
+					return -1;
+				moving[i] |= frontier[i];
+			}
+			shift(frontier, dirOrdinal, targets);
+			Arrays.fill(frontier, 0);
+			for (int i = 0; i < 4; ++i) {
+				long hits = targets[i] & occupied[i] & ~moving[i];
+				while (hits != 0) {
+					int atom = scratch.cellAtom[i << 6 | Long.numberOfTrailingZeros(hits)];
+					hits &= hits - 1;
+					if ((moved & (1 << atom)) != 0) continue;
+					int pushed = molecule(atoms, atom);
+					for (int m = pushed & ~moved; m != 0; m &= m - 1)
+						setBit(frontier, 0, coordByte(atoms, numberOfTrailingZeros(m)) & 0xFF);
+					moved |= pushed;
+					anyHit = true;
+				}
+			}
+			if (!anyHit) break;
 		}
 
+		int[] neighbors = scratch.prepro.neighbors;
+		for (int m = moved; m != 0; m &= m - 1) {
+			int atom = numberOfTrailingZeros(m);
+			int targetCell = neighbors[(coordByte(atoms, atom) & 0xFF) * 4 + dirOrdinal];
+			newAtoms[atom] = (newAtoms[atom] & ~COORD_MASK) | (targetCell << numberOfTrailingZeros(COORD_MASK));
+		}
 		return moved;
 	}
 
-	public Object pack(PreprocessedPuzzle prepro) {
-		//Sort atom coordinates in each element range.  We'll remap bond indices
-		//into the (sorted) packed order.
-		DataContainer d = DataContainer.create(atoms.length + totalBonds(atoms));
-		int i = 0;
-		for (int j = 0; j < atoms.length; ++j)
-			d.set(i++, coordByte(atoms, j));
-		for (byte r : prepro.elementRanges)
-			d.sort((r & 0xF0) >> 4, (r & 0xF));
-		//bonds are idx1 << 4 | idx2.
-		//TODO: exit early if we've seen all the bonds? (esp if many heliums)
-		for (int idx1 = 0; idx1 < atoms.length; ++idx1) {
-			int bonds = bonds(atoms, idx1);
+	//shifts a 256-bit cell set one cell in the given direction (cell indices
+	//are row << 4 | col, so rows are 16 bits apart).  callers must have
+	//excluded cells that would leave the grid or wrap between rows.
+	private static void shift(long[] src, int dirOrdinal, long[] dst) {
+		int distance = COORD_ADD[dirOrdinal][0] * 16 + COORD_ADD[dirOrdinal][1];
+		if (distance > 0)
+			for (int i = 3; i >= 0; --i)
+				dst[i] = src[i] << distance | (i > 0 ? src[i-1] >>> (64 - distance) : 0);
+		else
+			for (int i = 0; i < 4; ++i)
+				dst[i] = src[i] >>> -distance | (i < 3 ? src[i+1] << (64 + distance) : 0);
+	}
+
+	/**
+	 * Returns this state's 64-bit Zobrist fingerprint, as computed by
+	 * fingerprint() but maintained incrementally during move generation.
+	 * @return this state's fingerprint
+	 */
+	public long hash() {
+		return hash;
+	}
+
+	/**
+	 * Computes a 64-bit Zobrist fingerprint of this state from scratch.
+	 * States that pack() equal have equal fingerprints.
+	 * @param prepro the preprocessed puzzle
+	 * @return a fingerprint of this state
+	 */
+	public long fingerprint(PreprocessedPuzzle prepro) {
+		return fingerprint(atoms, prepro);
+	}
+
+	private static long fingerprint(int[] atoms, PreprocessedPuzzle prepro) {
+		long fingerprint = 0;
+		for (int i = 0; i < atoms.length; ++i) {
+			int cell = coordByte(atoms, i) & 0xFF;
+			fingerprint ^= prepro.zobrist[i][cell];
+			//each bond once, from its lower-indexed atom
+			int bonds = bonds(atoms, i) & -(2 << i);
+			while (bonds != 0) {
+				int j = numberOfTrailingZeros(bonds);
+				bonds &= bonds - 1;
+				fingerprint ^= bondKey(cell, coordByte(atoms, j) & 0xFF);
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Packs this state's canonical image under the puzzle's board symmetries,
+	 * as by pack(), returning the image's fingerprint.  All symmetric images
+	 * of a state pack and hash equal.
+	 * @param prepro the preprocessed puzzle
+	 * @param dst the destination array
+	 * @param offset the index in dst of the first long to write
+	 * @return the canonical image's fingerprint
+	 */
+	public long packCanonical(PreprocessedPuzzle prepro, long[] dst, int offset) {
+		return packCanonical(atoms, hash, prepro, dst, offset);
+	}
+
+	/**
+	 * Packs the canonical image of the state with the given atoms and
+	 * fingerprint, as by packCanonical(), for searches that store states
+	 * packed rather than as StateUnboxed objects.
+	 * @param atoms the state's atoms
+	 * @param hash the state's fingerprint
+	 * @param prepro the preprocessed puzzle
+	 * @param dst the destination array
+	 * @param offset the index in dst of the first long to write
+	 * @return the canonical image's fingerprint
+	 */
+	static long packCanonical(int[] atoms, long hash, PreprocessedPuzzle prepro, long[] dst, int offset) {
+		int[] image = new int[atoms.length], canonical = new int[atoms.length], fields = new int[atoms.length];
+		long canonicalHash = canonicalize(atoms, hash, prepro, image, canonical, fields,
+				new long[prepro.packedLongs], new long[prepro.packedLongs]);
+		pack(canonical, prepro, fields, dst, offset);
+		return canonicalHash;
+	}
+
+	//Finds the symmetric image with the least fingerprint (ties broken by
+	//packed key, so the choice doesn't depend on the starting image), copying
+	//its atoms into canonical and returning its fingerprint.
+	private static long canonicalize(int[] atoms, long hash, PreprocessedPuzzle prepro,
+			int[] image, int[] canonical, int[] fields, long[] imageKey, long[] canonicalKey) {
+		System.arraycopy(atoms, 0, canonical, 0, atoms.length);
+		long best = hash;
+		for (byte[] map : prepro.symmetries) {
+			for (int i = 0; i < atoms.length; ++i)
+				image[i] = (atoms[i] & ~COORD_MASK) |
+						((map[coordByte(atoms, i) & 0xFF] & 0xFF) << numberOfTrailingZeros(COORD_MASK));
+			long imageHash = fingerprint(image, prepro);
+			if (imageHash > best) continue;
+			if (imageHash == best) {
+				pack(canonical, prepro, fields, canonicalKey, 0);
+				pack(image, prepro, fields, imageKey, 0);
+				if (Arrays.compare(imageKey, canonicalKey) >= 0) continue;
+			}
+			best = imageHash;
+			System.arraycopy(image, 0, canonical, 0, atoms.length);
+		}
+		return best;
+	}
+
+	//bonds are identified by the (unordered) pair of cells they join
+	private static long bondKey(int cell1, int cell2) {
+		long x = Math.min(cell1, cell2) << 8 | Math.max(cell1, cell2);
+		//MurmurHash3 finalizer
+		x *= 0x9E3779B97F4A7C15L;
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		return x ^ (x >>> 33);
+	}
+
+	/**
+	 * Packs this state into a canonical fixed-width run of prepro.packedLongs()
+	 * longs, suitable for a PackedStateSet.  Each atom gets a field holding its
+	 * cell ordinal and two bits for bonds to the atoms to its right and below
+	 * (every bond is between adjacent atoms, so this records each bond exactly
+	 * once).  Fields are sorted within each element range, which canonicalizes
+	 * atoms of the same element without remapping bond indices.  With up to 64
+	 * reachable cells, 16 atoms fit in two longs.
+	 * @param prepro the preprocessed puzzle
+	 * @param dst the destination array
+	 * @param offset the index in dst of the first long to write
+	 */
+	public void pack(PreprocessedPuzzle prepro, long[] dst, int offset) {
+		pack(atoms, prepro, new int[atoms.length], dst, offset);
+	}
+
+	private static void pack(int[] atoms, PreprocessedPuzzle prepro, int[] fields, long[] dst, int offset) {
+		for (int i = 0; i < atoms.length; ++i) {
+			int cell = coordByte(atoms, i) & 0xFF;
+			int field = prepro.cellOrdinal[cell] << 2;
+			int bonds = bonds(atoms, i);
 			while (bonds != 0) {
-				int bit = lowestOneBit(bonds);
-				bonds &= ~bit;
-				int idx2 = numberOfTrailingZeros(bit);
-				//translate indices
-				int idx1p = d.indexOf(coordByte(atoms, idx1));
-				int idx2p = d.indexOf(coordByte(atoms, idx2));
-				if (idx1 < idx2)
-					d.set(i++, (byte)Math.min((byte)(idx1p << 4 | idx2p), (byte)(idx2p << 4 | idx1p)));
+				int j = numberOfTrailingZeros(bonds);
+				bonds &= bonds - 1;
+				int delta = (coordByte(atoms, j) & 0xFF) - cell;
+				assert delta == 1 || delta == -1 || delta == 16 || delta == -16 : delta;
+				//right neighbor is +1, down neighbor is +16
+				field |= (delta == 1 ? 0b10 : 0) | (delta == 16 ? 0b01 : 0);
 			}
+			fields[i] = field;
 		}
-		return d;
+		//insertion sort, as element ranges are tiny
+		for (byte r : prepro.elementRanges)
+			for (int i = ((r & 0xF0) >> 4) + 1; i < (r & 0xF); ++i)
+				for (int j = i, f = fields[i]; j > (r & 0xF0) >> 4 && fields[j-1] > f; --j) {
+					fields[j] = fields[j-1];
+					fields[j-1] = f;
+				}
+
+		int width = prepro.atomBits, bits = 0, idx = offset;
+		long acc = 0;
+		for (int f : fields) {
+			acc |= (long)f << bits;
+			bits += width;
+			if (bits >= Long.SIZE) {
+				dst[idx++] = acc;
+				bits -= Long.SIZE;
+				acc = bits == 0 ? 0 : (long)f >>> (width - bits);
+			}
+		}
+		if (bits > 0)
+			dst[idx++] = acc;
+		Arrays.fill(dst, idx, offset + prepro.packedLongs, 0);
 	}
 
 	public static final class ClosedSetPruner implements Consumer<List<StateUnboxed>> {
-		private final Set<Object> closedSet;
-		private final int atoms;
-		private int minBondsInClosedSet = 0;
-		public ClosedSetPruner(PreprocessedPuzzle prepro, Set<Object> closedSet) {
+		private final LayeredStateSet closedSet;
+		private final SearchMetrics metrics;
+		public ClosedSetPruner(LayeredStateSet closedSet) {
+			this(closedSet, null);
+		}
+		public ClosedSetPruner(LayeredStateSet closedSet, SearchMetrics metrics) {
 			this.closedSet = closedSet;
-			this.atoms = prepro.initialAtomOrder.size();
+			this.metrics = metrics;
 		}
 		@Override
 		public void accept(List<StateUnboxed> frontier) {
 			if (frontier.isEmpty()) return;
+			//can't short-circuit: http://stackoverflow.com/q/28801293/3614835
+			prune(frontier.stream().mapToInt(StateUnboxed::totalBonds).min().getAsInt());
+		}
+		/**
+		 * Drops the closed set's layers below the given number of bonds.
+		 * @param minBonds the fewest bonds of any state in the frontier
+		 */
+		public void prune(int minBonds) {
 			//if there are no splitters in a puzzle, and all states in the
 			//frontier have at least N bonds, we can remove all states with < N
 			//bonds from the closed set.
-			//can't short-circuit: http://stackoverflow.com/q/28801293/3614835
-			//TODO: parallel if frontier.size() > N
-			int minBonds = frontier.stream().mapToInt(s -> totalBonds(s.atoms)).min().getAsInt();
-			if (minBonds > minBondsInClosedSet) {
-				int before = closedSet.size();
-				//TODO: parallel?
-				closedSet.removeIf(d -> ((DataContainer)d).size() < (atoms + minBonds));
-				minBondsInClosedSet = minBonds;
-				int after = closedSet.size();
-				System.out.format("pruned closed set to %d bonds, removed %d, now %d%n",
-						minBondsInClosedSet, before-after, after);
+			if (minBonds <= closedSet.floor()) return;
+			SearchEvents.ClosedSetPrune event = new SearchEvents.ClosedSetPrune();
+			event.begin();
+			long before = closedSet.size();
+			long removed = closedSet.evictBelow(minBonds);
+			if (metrics != null)
+				metrics.prunerReclaimed(removed);
+			if (event.shouldCommit()) {
+				event.minBonds = minBonds;
+				event.sizeBefore = before;
+				event.sizeAfter = before - removed;
+				event.memoryBytes = closedSet.memoryBytes();
+				event.commit();
 			}
 		}
 	}
@@ -340,7 +1019,7 @@ public final class StateUnboxed {
 		return true;
 	}
 
-	private static int totalBonds(int[] atoms) {
+	static int totalBonds(int[] atoms) {
 		return ((atoms[0] & TOTAL_BONDS) >>> numberOfTrailingZeros(TOTAL_BONDS));
 	}
 
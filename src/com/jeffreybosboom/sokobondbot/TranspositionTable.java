@@ -0,0 +1,96 @@
+package com.jeffreybosboom.sokobondbot;
+
+/**
+ * A fixed-size table mapping state fingerprints to lower bounds on the number
+ * of moves remaining, for use by iterative-deepening searches.  Each bucket
+ * has two entries: a depth-preferred entry, replaced only by results from
+ * searches at least as deep (which are the most expensive to recompute), and
+ * an always-replace entry that holds everything else.  The table never grows,
+ * so memory use is independent of the search depth.
+ * <p/>
+ * Only fingerprints are stored, so a fingerprint collision can cause a state
+ * to be pruned incorrectly; with 64-bit fingerprints this is vanishingly rare.
+ * <p/>
+ * The table can be shared by concurrent searches without locking.  Each slot
+ * stores its fingerprint xored with its entry, so a slot read while another
+ * thread is writing it (or written by two threads at once) fails to verify
+ * and reads as empty rather than returning another state's bound.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/3/2015
+ */
+public final class TranspositionTable {
+	private static final int MAX_BOUND = 0xFFFF, MAX_DRAFT = 0x7FFF;
+	//fingerprint ^ entry, verified on read
+	private final long[] checks;
+	//draft+1 << 16 | bound, or 0 if empty
+	private final int[] entries;
+	private final int mask;
+	public TranspositionTable(int log2Entries) {
+		if (log2Entries < 1 || log2Entries > 30)
+			throw new IllegalArgumentException("log2Entries out of range: "+log2Entries);
+		this.checks = new long[1 << log2Entries];
+		this.entries = new int[1 << log2Entries];
+		this.mask = (1 << log2Entries) - 2;
+	}
+
+	/**
+	 * Returns the recorded lower bound for the given fingerprint, or 0 if none
+	 * is recorded.  A bound of Integer.MAX_VALUE means the state is unsolvable.
+	 * @param fingerprint the state fingerprint
+	 * @return a lower bound on the moves remaining
+	 */
+	public int lowerBound(long fingerprint) {
+		int bucket = bucket(fingerprint);
+		for (int i = bucket; i < bucket + 2; ++i) {
+			int entry = entries[i];
+			if (entry != 0 && (checks[i] ^ entry) == fingerprint) {
+				int bound = entry & 0xFFFF;
+				return bound == MAX_BOUND ? Integer.MAX_VALUE : bound;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Records a lower bound for the given fingerprint.
+	 * @param fingerprint the state fingerprint
+	 * @param bound a lower bound on the moves remaining, or Integer.MAX_VALUE
+	 * if the state is unsolvable
+	 * @param draft the depth budget of the search that established the bound
+	 */
+	public void store(long fingerprint, int bound, int draft) {
+		int entry = (Math.min(draft, MAX_DRAFT) + 1) << 16 | Math.min(bound, MAX_BOUND);
+		int bucket = bucket(fingerprint);
+		//update in place if present, so the bucket never holds two copies
+		for (int i = bucket; i < bucket + 2; ++i)
+			if (entries[i] != 0 && (checks[i] ^ entries[i]) == fingerprint) {
+				if (i == bucket + 1 && (entries[bucket] >>> 16) <= (entry >>> 16)) {
+					//promote to the depth-preferred entry, demoting its occupant
+					entries[i] = entries[bucket];
+					checks[i] = checks[bucket];
+					i = bucket;
+				}
+				write(i, fingerprint, entry);
+				return;
+			}
+		int slot = (entries[bucket] >>> 16) <= (entry >>> 16) ? bucket : bucket + 1;
+		write(slot, fingerprint, entry);
+	}
+
+	private void write(int slot, long fingerprint, int entry) {
+		entries[slot] = entry;
+		checks[slot] = fingerprint ^ entry;
+	}
+
+	/**
+	 * Returns the number of bytes used by this table.
+	 * @return this table's memory footprint
+	 */
+	public long memoryBytes() {
+		return (long)entries.length * (Long.BYTES + Integer.BYTES);
+	}
+
+	private int bucket(long fingerprint) {
+		return (int)(fingerprint ^ (fingerprint >>> 32)) & mask;
+	}
+}
@@ -1,6 +1,7 @@
 package com.jeffreybosboom.sokobondbot;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -10,6 +11,8 @@ import java.util.stream.StreamSupport;
  * @since 2/18/2015
  */
 public final class TwoLongPath implements Path {
+	//two bits per move in two longs
+	public static final int MAX_LENGTH = 2 * Long.SIZE / 2;
 	private final long a, b;
 	private final byte length;
 	private TwoLongPath(long a, long b, byte length) {
@@ -24,9 +27,10 @@ public final class TwoLongPath implements Path {
 
 	@Override
 	public TwoLongPath append(Direction d) {
+		if (length == MAX_LENGTH)
+			throw new IllegalStateException("TwoLongPath holds at most "+MAX_LENGTH+" moves");
 		long bits = d.ordinal();
 		int idx = length * 2;
-		//somehow we're switching to b too early here, leaving top bits of a all 0
 		if (idx < 64)
 			return new TwoLongPath(a | (bits << idx), b, (byte)(length+1));
 		else
@@ -43,9 +47,11 @@ public final class TwoLongPath implements Path {
 			}
 			@Override
 			public Direction next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
 				int ordinal;
 				int idx = i * 2;
-				if (idx < 63)
+				if (idx < 64)
 					ordinal = (int)((a & (0b11L << idx)) >>> idx);
 				else
 					ordinal = (int)((b & (0b11L << idx-64)) >>> idx-64);
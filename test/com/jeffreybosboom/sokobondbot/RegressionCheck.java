@@ -0,0 +1,96 @@
+package com.jeffreybosboom.sokobondbot;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Checks for bugs that have bitten the solver before, on puzzles small enough
+ * to run in a moment.  There's no test framework in the build, so each check
+ * throws an AssertionError on failure; run with ant check.
+ * @author Jeffrey Bosboom <jbosboom@csail.mit.edu>
+ * @since 3/28/2015
+ */
+public final class RegressionCheck {
+	private RegressionCheck() {}
+
+	public static void main(String[] args) {
+		incrementalHashWithAdjacentMovedAtoms();
+		unenclosedPuzzlesRejected();
+		leadingSpacesKeepColumns();
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * Two atoms adjacent but unbonded before a move that moves both of them
+	 * bonded twice, once from each side, corrupting the incremental hash.
+	 */
+	private static void incrementalHashWithAdjacentMovedAtoms() {
+		Puzzle puzzle = PuzzleFormat.parse(
+				"#####\n" +
+				"#c..#\n" +
+				"#C..#\n" +
+				"#...#\n" +
+				"#####\n");
+		StateUnboxed.PreprocessedPuzzle prepro = StateUnboxed.preprocess(puzzle);
+		StateUnboxed initial = new StateUnboxed(puzzle, prepro);
+		initial.forEachSuccessor(new StateUnboxed.Successor(prepro), s -> {
+			if (s.direction() == Direction.DOWN && s.totalBonds() != 1)
+				throw new AssertionError("moving down made "+s.totalBonds()+" bonds, expected 1");
+		});
+		//every reachable state's incremental hash must match a fresh fingerprint
+		Set<Long> seen = new HashSet<>();
+		Queue<StateUnboxed> frontier = new ArrayDeque<>();
+		frontier.add(initial);
+		seen.add(initial.hash());
+		while (!frontier.isEmpty()) {
+			StateUnboxed state = frontier.remove();
+			state.nextStates(prepro).forEachOrdered(next -> {
+				if (next.hash() != next.fingerprint(prepro))
+					throw new AssertionError("incremental hash "+Long.toHexString(next.hash())
+							+" != fingerprint "+Long.toHexString(next.fingerprint(prepro))+" after "+next.path());
+				if (seen.add(next.hash()))
+					frontier.add(next);
+			});
+		}
+	}
+
+	/**
+	 * Puzzles whose atoms could reach the grid's edge parsed, then the solver
+	 * stepped off Coordinate's cache.
+	 */
+	private static void unenclosedPuzzlesRejected() {
+		StringBuilder openRightEdge = new StringBuilder("###########\n");
+		for (int row = 1; row < 10; ++row)
+			openRightEdge.append(row == 5 ? "#c........." : "#.........#").append('\n');
+		openRightEdge.append("###########\n");
+		String[] malformed = {
+			"c.H\n...\n",
+			openRightEdge.toString(),
+			"#########hH\nbonds\n0 9 0 10\n",
+			"####\n#c.#\n# .#\n####\n",
+		};
+		for (String text : malformed) {
+			try {
+				PuzzleFormat.parse(text);
+			} catch (IllegalArgumentException expected) {
+				continue;
+			}
+			throw new AssertionError("parsed unenclosed puzzle:\n"+text);
+		}
+	}
+
+	/**
+	 * Leading spaces were trimmed, shifting the row's cells left.
+	 */
+	private static void leadingSpacesKeepColumns() {
+		Puzzle puzzle = PuzzleFormat.parse(
+				"  ####\n" +
+				"###.c#\n" +
+				"#H...#\n" +
+				"######\n");
+		if (!puzzle.playerAtom().equals(Coordinate.at(1, 4)))
+			throw new AssertionError("player at "+puzzle.playerAtom()+", expected row 1 col 4");
+	}
+}